@@ -0,0 +1,191 @@
+package org.example.benchmarks;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.EmailBody;
+import org.example.model.User;
+import org.example.services.EmailService;
+import org.example.services.PasswordHasher;
+import org.example.services.SequenceEmailCodeGenerator;
+import org.example.services.UserService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Seeds the embedded database once per fork; every parameter combination runs in its own fork.
+@State(Scope.Benchmark)
+public class BenchmarkDataset {
+
+    static final String PASSWORD = "benchmark-password";
+    private static final int SAMPLE_SIZE = 1000;
+
+    @Param({"1000"})
+    public int users;
+
+    @Param({"50"})
+    public int emailsPerUser;
+
+    @Param({"3"})
+    public int fanOut;
+
+    EmailService emailService;
+    UserService userService;
+
+    final List<User> sampleUsers = new ArrayList<>();
+    final List<String> sampleUserEmails = new ArrayList<>();
+    final List<String> sampleCodes = new ArrayList<>();
+    final List<User> sampleCodeReaders = new ArrayList<>();
+
+    private PrintStream originalOut;
+    private PrintStream originalErr;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (fanOut >= users) {
+            throw new IllegalArgumentException("fanOut must be smaller than users.");
+        }
+        System.setProperty("milou.env", "bench");
+
+        originalOut = System.out;
+        originalErr = System.err;
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        System.setOut(discard);
+        System.setErr(discard);
+
+        emailService = new EmailService();
+        userService = new UserService();
+
+        seed();
+        loadSamples();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(originalOut);
+        System.setErr(originalErr);
+        SingletonSessionFactory.close();
+    }
+
+    static String emailOf(int index) {
+        return "user" + index + "@milou.com";
+    }
+
+    private void seed() {
+        String passwordHash = PasswordHasher.shared().hash(PASSWORD);
+        SequenceEmailCodeGenerator codeGenerator = new SequenceEmailCodeGenerator();
+        Random random = new Random(42);
+
+        SingletonSessionFactory.get().inTransaction(session -> session.doWork(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into users (name, email, password) values (?, ?, ?)")) {
+                for (int i = 0; i < users; i++) {
+                    insert.setString(1, "User " + i);
+                    insert.setString(2, emailOf(i));
+                    insert.setString(3, passwordHash);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            long[] userIds = readIds(connection.prepareStatement("select id from users order by id"), users);
+
+            EmailBody body = EmailBody.of("Body of a benchmark email. ".repeat(20));
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into email_bodies (hash, compression, original_length, payload) values (?, ?, ?, ?)")) {
+                insert.setString(1, body.getHash());
+                insert.setString(2, body.getCompression());
+                insert.setInt(3, body.getOriginalLength());
+                insert.setBytes(4, body.getPayload());
+                insert.executeUpdate();
+            }
+            long bodyId = readIds(connection.prepareStatement("select id from email_bodies"), 1)[0];
+
+            int emailCount = users * emailsPerUser;
+            LocalDateTime now = LocalDateTime.now();
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into emails (sender_id, subject, body_id, sent_at, code) values (?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < emailCount; i++) {
+                    insert.setLong(1, userIds[i % users]);
+                    insert.setString(2, "Subject " + i);
+                    insert.setLong(3, bodyId);
+                    insert.setTimestamp(4, Timestamp.valueOf(now.minusMinutes(emailCount - i)));
+                    insert.setString(5, codeGenerator.nextCode());
+                    insert.addBatch();
+                    if (i % 1000 == 999) {
+                        insert.executeBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+
+            long[] emailIds = readIds(connection.prepareStatement("select id from emails order by id"), emailCount);
+
+            // Seeded rows take auto-increment ids; move the pooled Email id sequence past them.
+            try (PreparedStatement update = connection.prepareStatement(
+                    "update emails_seq set next_val = (select max(id) from emails) + 50")) {
+                update.executeUpdate();
+            }
+
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into email_recipients (email_id, recipient_id, is_read) values (?, ?, ?)")) {
+                int pending = 0;
+                for (int i = 0; i < emailCount; i++) {
+                    int sender = i % users;
+                    int offset = 1 + random.nextInt(users - fanOut);
+                    for (int k = 0; k < fanOut; k++) {
+                        insert.setLong(1, emailIds[i]);
+                        insert.setLong(2, userIds[(sender + offset + k) % users]);
+                        insert.setBoolean(3, random.nextBoolean());
+                        insert.addBatch();
+                        if (++pending % 1000 == 0) {
+                            insert.executeBatch();
+                        }
+                    }
+                }
+                insert.executeBatch();
+            }
+        }));
+    }
+
+    private static long[] readIds(PreparedStatement select, int count) throws java.sql.SQLException {
+        long[] ids = new long[count];
+        try (select; ResultSet rs = select.executeQuery()) {
+            int i = 0;
+            while (rs.next()) {
+                ids[i++] = rs.getLong(1);
+            }
+        }
+        return ids;
+    }
+
+    private void loadSamples() {
+        Random random = new Random(7);
+        for (int i = 0; i < Math.min(SAMPLE_SIZE, users); i++) {
+            String email = emailOf(random.nextInt(users));
+            sampleUserEmails.add(email);
+            sampleUsers.add(userService.findByEmail(email));
+        }
+
+        List<Object[]> rows = SingletonSessionFactory.get().fromTransaction(session ->
+                session.createNativeQuery("""
+                                    select e.code, s.email
+                                    from emails e
+                                    join users s on s.id = e.sender_id
+                                    order by e.id
+                                """, Object[].class)
+                        .setMaxResults(SAMPLE_SIZE)
+                        .getResultList());
+
+        for (Object[] row : rows) {
+            sampleCodes.add((String) row[0]);
+            sampleCodeReaders.add(userService.findByEmail((String) row[1]));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.benchmarks;
+
+import org.example.services.EmailCodeGenerator;
+import org.example.services.SequenceEmailCodeGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EmailCodeGeneratorBenchmark {
+
+    private EmailCodeGenerator codeGenerator;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkDataset dataset) {
+        codeGenerator = new SequenceEmailCodeGenerator();
+    }
+
+    @Benchmark
+    public String nextCode() {
+        return codeGenerator.nextCode();
+    }
+}
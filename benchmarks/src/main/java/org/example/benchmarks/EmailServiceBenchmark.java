@@ -0,0 +1,56 @@
+package org.example.benchmarks;
+
+import org.example.model.MailboxEntry;
+import org.example.model.Page;
+import org.example.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class EmailServiceBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Benchmark
+    public void sendEmail(BenchmarkDataset dataset) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        User sender = dataset.sampleUsers.get(random.nextInt(dataset.sampleUsers.size()));
+
+        StringBuilder recipients = new StringBuilder();
+        for (int i = 0; i < dataset.fanOut; i++) {
+            recipients.append(BenchmarkDataset.emailOf(random.nextInt(dataset.users))).append(',');
+        }
+
+        dataset.emailService.sendEmail(sender, recipients.toString(), "Benchmark", "Benchmark body");
+    }
+
+    @Benchmark
+    public Page<MailboxEntry> getUnreadEmailsPage(BenchmarkDataset dataset) {
+        User user = dataset.sampleUsers.get(ThreadLocalRandom.current().nextInt(dataset.sampleUsers.size()));
+        return dataset.emailService.getUnreadEmailsPage(user, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Object getUnreadEmails(BenchmarkDataset dataset) {
+        User user = dataset.sampleUsers.get(ThreadLocalRandom.current().nextInt(dataset.sampleUsers.size()));
+        return dataset.emailService.getUnreadEmails(user);
+    }
+
+    @Benchmark
+    public long countUnreadEmails(BenchmarkDataset dataset) {
+        User user = dataset.sampleUsers.get(ThreadLocalRandom.current().nextInt(dataset.sampleUsers.size()));
+        return dataset.emailService.countUnreadEmails(user);
+    }
+
+    @Benchmark
+    public void readEmailByCode(BenchmarkDataset dataset) {
+        int i = ThreadLocalRandom.current().nextInt(dataset.sampleCodes.size());
+        dataset.emailService.readEmailByCode(dataset.sampleCodeReaders.get(i), dataset.sampleCodes.get(i));
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.benchmarks;
+
+import org.example.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @Benchmark
+    public User login(BenchmarkDataset dataset) {
+        String email = dataset.sampleUserEmails.get(
+                ThreadLocalRandom.current().nextInt(dataset.sampleUserEmails.size()));
+        return dataset.userService.login(email, BenchmarkDataset.PASSWORD);
+    }
+
+    @Benchmark
+    public User findByEmail(BenchmarkDataset dataset) {
+        String email = dataset.sampleUserEmails.get(
+                ThreadLocalRandom.current().nextInt(dataset.sampleUserEmails.size()));
+        return dataset.userService.findByEmail(email);
+    }
+}
@@ -0,0 +1,81 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.math.BigInteger;
+import java.sql.*;
+
+// Databases baselined before V2 hold random 6-character codes, and the sequence can scramble to any of
+// them. Each such code is decoded back to its sequence value and recorded in email_code_reserved, which
+// SequenceEmailCodeGenerator skips. The scramble is copied here rather than shared with the generator
+// so that this migration keeps producing the same rows whatever the generator does later.
+public class V13__Reserve_legacy_email_codes extends BaseJavaMigration {
+
+    private static final String CHARS = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final int CODE_LENGTH = 6;
+    private static final long KEYSPACE = 2_176_782_336L;
+    private static final long MULTIPLIER = 1_580_030_173L;
+    private static final long OFFSET = 918_273_645L;
+    private static final long INVERSE = BigInteger.valueOf(MULTIPLIER)
+            .modInverse(BigInteger.valueOf(KEYSPACE)).longValueExact();
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table email_code_reserved (sequence_value bigint primary key)");
+        }
+
+        long nextValue;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("select next_value from email_code_sequence where id = 1")) {
+            rs.next();
+            nextValue = rs.getLong(1);
+        }
+
+        try (Statement select = connection.createStatement();
+             PreparedStatement insert = connection.prepareStatement(
+                     "insert into email_code_reserved (sequence_value) values (?)")) {
+            int pending = 0;
+            try (ResultSet rs = select.executeQuery("select code from emails union all select code from emails_archive")) {
+                while (rs.next()) {
+                    long value = decode(rs.getString(1));
+                    // Values below next_value were handed out already; codes that are not 6 base36 characters
+                    // are outside the sequence's range.
+                    if (value < nextValue) {
+                        continue;
+                    }
+                    insert.setLong(1, value);
+                    insert.addBatch();
+                    if (++pending == BATCH_SIZE) {
+                        insert.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            if (pending > 0) {
+                insert.executeBatch();
+            }
+        }
+    }
+
+    // The sequence value whose scrambled base36 form is code, or -1.
+    private static long decode(String code) {
+        if (code == null || code.length() != CODE_LENGTH) {
+            return -1;
+        }
+        long scrambled = 0;
+        for (int i = 0; i < CODE_LENGTH; i++) {
+            int digit = CHARS.indexOf(code.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            scrambled = scrambled * CHARS.length() + digit;
+        }
+        return BigInteger.valueOf(scrambled - OFFSET).multiply(BigInteger.valueOf(INVERSE))
+                .mod(BigInteger.valueOf(KEYSPACE)).longValueExact();
+    }
+}
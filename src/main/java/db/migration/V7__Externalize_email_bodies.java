@@ -0,0 +1,132 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.*;
+import java.util.HexFormat;
+import java.util.zip.Deflater;
+
+// Moves emails.body into the content-addressed, compressed email_bodies table.
+// Written in Java because hashing and deflating have no portable SQL form. The encoding is a frozen
+// copy of EmailBody.of as of this version, so later changes to EmailBody cannot change what V7 writes.
+public class V7__Externalize_email_bodies extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 500;
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    create table email_bodies (
+                        id bigint primary key auto_increment,
+                        hash char(64) not null unique,
+                        compression varchar(16) not null,
+                        original_length int not null,
+                        payload longblob not null
+                    )
+                    """);
+            statement.execute("alter table emails add column body_id bigint");
+        }
+
+        try (PreparedStatement select = connection.prepareStatement(
+                     "select id, body from emails where id > ? order by id limit " + BATCH_SIZE);
+             PreparedStatement findBody = connection.prepareStatement(
+                     "select id from email_bodies where hash = ?");
+             PreparedStatement insertBody = connection.prepareStatement(
+                     "insert into email_bodies (hash, compression, original_length, payload) values (?, ?, ?, ?)",
+                     Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement link = connection.prepareStatement(
+                     "update emails set body_id = ? where id = ?")) {
+
+            long lastId = 0;
+            while (true) {
+                select.setLong(1, lastId);
+                int rows = 0;
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastId = rs.getLong(1);
+                        String text = rs.getString(2);
+                        Body body = Body.of(text == null ? "" : text);
+
+                        link.setLong(1, bodyId(body, findBody, insertBody));
+                        link.setLong(2, lastId);
+                        link.addBatch();
+                    }
+                }
+                link.executeBatch();
+                if (rows < BATCH_SIZE) {
+                    break;
+                }
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("alter table emails add constraint fk_emails_body foreign key (body_id) references email_bodies(id)");
+            statement.execute("alter table emails drop column body");
+        }
+    }
+
+    private static long bodyId(Body body, PreparedStatement findBody, PreparedStatement insertBody) throws SQLException {
+        findBody.setString(1, body.hash());
+        try (ResultSet rs = findBody.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+
+        insertBody.setString(1, body.hash());
+        insertBody.setString(2, body.compression());
+        insertBody.setInt(3, body.originalLength());
+        insertBody.setBytes(4, body.payload());
+        insertBody.executeUpdate();
+        try (ResultSet keys = insertBody.getGeneratedKeys()) {
+            keys.next();
+            return keys.getLong(1);
+        }
+    }
+
+    // SHA-256 of the UTF-8 text; the Deflate (BEST_SPEED) form is kept only when it is smaller.
+    private record Body(String hash, String compression, int originalLength, byte[] payload) {
+
+        static Body of(String text) {
+            byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+            byte[] deflated = deflate(raw);
+            if (deflated.length < raw.length) {
+                return new Body(hashOf(raw), "DEFLATE", raw.length, deflated);
+            }
+            return new Body(hashOf(raw), "NONE", raw.length, raw);
+        }
+
+        private static String hashOf(byte[] raw) {
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(raw));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available.", e);
+            }
+        }
+
+        private static byte[] deflate(byte[] raw) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+                byte[] buffer = new byte[4096];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
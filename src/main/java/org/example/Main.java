@@ -1,17 +1,61 @@
 package org.example;
 
+import org.example.framework.SingletonSessionFactory;
 import org.example.model.*;
 import org.example.services.*;
 
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static org.example.services.EmailService.printEmailList;
 
 public class Main {
     private static EmailService emailService = new EmailService();
     private static User currentUser;
+    private static final int PAGE_SIZE = 20;
 
+    // Closing the factory also stops the metrics endpoint, whose HTTP dispatcher would keep the JVM alive.
     public static void main(String[] args) {
+        try {
+            run(args);
+        } finally {
+            SingletonSessionFactory.close();
+        }
+    }
+
+    private static void run(String[] args) {
+        if (args.length == 2 && (args[0].equals("import-users") || args[0].equals("import-mbox"))) {
+            runImport(args[0], Path.of(args[1]));
+            return;
+        }
+        if (args.length == 1 && args[0].equals("archive")) {
+            long archived = new RetentionService().archiveExpired();
+            System.out.println(archived + " email(s) archived.");
+            return;
+        }
+        // Indexes mail that existed before full-text search was enabled, or after the index was lost.
+        if (args.length == 1 && args[0].equals("reindex")) {
+            try {
+                emailService.rebuildSearchIndex();
+                System.out.println("Search index rebuilt.");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Reindexing interrupted.");
+            }
+            return;
+        }
+        // Enable -Dmilou.mailbox.fanout=true first; listings keep using the joins until this has run.
+        if (args.length == 1 && args[0].equals("rebuild-mailbox")) {
+            MailboxConsistencyChecker checker = new MailboxConsistencyChecker();
+            checker.rebuild();
+            System.out.println("Mailbox rebuilt, consistent: " + checker.check().isConsistent());
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
         UserService userService = new UserService();
 
@@ -32,6 +76,14 @@ public class Main {
         }
     }
 
+    // Batch entry point: java org.example.Main import-users users.csv | import-mbox archive.mbox
+    private static void runImport(String command, Path file) {
+        BulkImporter importer = new BulkImporter();
+        ImportResult result = command.equals("import-users") ? importer.importUsers(file) : importer.importMbox(file);
+        System.out.printf("Imported %d, skipped %d in %d s (%.0f/s)%n", result.imported(), result.skipped(),
+                result.elapsed().toSeconds(), result.perSecond());
+    }
+
     private static void handleLogin(Scanner scanner, UserService userService) {
         System.out.print("Email: ");
         String email = scanner.nextLine().trim();
@@ -41,19 +93,21 @@ public class Main {
 
         User user = userService.login(email, password);
 
-        if (user != null && user.checkPassword(password)) {
+        if (user != null) {
             currentUser = user;
+            NewMailAlerts alerts = new NewMailAlerts();
+            emailService.getEventBus().publisherFor(currentUser.getId()).subscribe(alerts);
 
-            List<Email> unreadEmails = emailService.getUnreadEmails(currentUser);
+            long unreadCount = emailService.countUnreadEmails(currentUser);
             System.out.println("Unread Emails:\n");
-            if (!unreadEmails.isEmpty()) {
-                System.out.println(unreadEmails.size() + " unread emails:");
-                printEmailList(unreadEmails);
+            if (unreadCount > 0) {
+                System.out.println(unreadCount + " unread emails:");
+                printEmailList(emailService.getUnreadEmailsPage(currentUser, null, PAGE_SIZE).items());
             } else
                 System.out.println("0 unread email.");
 
             while (true) {
-                System.out.print("\n[S]end, [V]iew, [R]eply, [F]orward, [Q]uit: ");
+                System.out.print("\n[S]end, [V]iew, [R]eply, [F]orward, [M]ark read, E[x]port, [Q]uit: ");
                 String cmd = scanner.nextLine().trim().toLowerCase();
 
                 switch (cmd) {
@@ -73,7 +127,7 @@ public class Main {
 
                     case "v":
                     case "view":
-                        System.out.print("[A]ll emails, [U]nread emails, [S]ent emails, Read by [C]ode: ");
+                        System.out.print("[A]ll emails, [U]nread emails, [S]ent emails, [T]hreads, Read by [C]ode, T[h]read by code: ");
                         String readCmd = scanner.nextLine().trim().toLowerCase();
 
 
@@ -81,32 +135,53 @@ public class Main {
                             case "a":
                             case "all":
                                 System.out.println("All Emails:");
-                                List<Email> allEmails = emailService.getAllReceivedEmails(currentUser);
-                                printEmailList(allEmails);
+                                printPages(scanner,
+                                        cursor -> emailService.getReceivedEmailsPage(currentUser, cursor, PAGE_SIZE),
+                                        EmailService::printEmailList);
                                 break;
 
                             case "u":
                             case "unread":
                                 System.out.println("Unread Emails:");
-                                List<Email> unreadEmail = emailService.getUnreadEmails(currentUser);
-                                if (unreadEmail.isEmpty()) {
+                                Page<MailboxEntry> unreadEmail = emailService.getUnreadEmailsPage(currentUser, null, PAGE_SIZE);
+                                if (unreadEmail.items().isEmpty()) {
                                     System.out.println("No unread email");
                                     break;
                                 }
-                                printEmailList(unreadEmail);
+                                printEmailList(unreadEmail.items());
+                                if (unreadEmail.hasNext()) {
+                                    printPages(scanner, unreadEmail.nextCursor(),
+                                            cursor -> emailService.getUnreadEmailsPage(currentUser, cursor, PAGE_SIZE),
+                                            EmailService::printEmailList);
+                                }
                                 break;
 
                             case "s":
                             case "sent":
-                                List<Object[]> emails = emailService.getSentEmails(currentUser);
                                 System.out.println("Sent Emails:");
-                                for (Object[] row : emails) {
-                                    String emailSubject = (String) row[0];
-                                    String code = (String) row[1];
-                                    String emailRecipients = (String) row[2];
+                                printPages(scanner,
+                                        cursor -> emailService.getSentEmailsPage(currentUser, cursor, PAGE_SIZE),
+                                        Main::printSentList);
+                                break;
 
-                                    System.out.println("+ " + emailRecipients + " - " + emailSubject + " (" + code + ")");
+                            case "t":
+                            case "threads":
+                                System.out.println("Threads:");
+                                printPages(scanner,
+                                        cursor -> emailService.getReceivedThreadsPage(currentUser, cursor, PAGE_SIZE),
+                                        Main::printThreadList);
+                                break;
+
+                            case "h":
+                            case "thread":
+                                System.out.println("Code:");
+                                String threadCode = scanner.nextLine().trim().toLowerCase();
+                                List<MailboxEntry> thread = emailService.getThread(currentUser, threadCode);
+                                if (thread.isEmpty()) {
+                                    System.err.println("No email found with this code.");
+                                    break;
                                 }
+                                printEmailList(thread);
                                 break;
 
                             case "c":
@@ -142,8 +217,27 @@ public class Main {
                         emailService.forwardEmail(currentUser, originalCode, recipientEmails);
                         break;
 
+                    case "m":
+                    case "mark":
+                        System.out.print("Code(s) (blank for all): ");
+                        String codeLine = scanner.nextLine().trim().toLowerCase();
+                        int marked = codeLine.isEmpty()
+                                ? emailService.markAllRead(currentUser, Instant.now())
+                                : emailService.markRead(currentUser, Arrays.asList(codeLine.split("[,\\s]+")));
+                        System.out.println(marked + " email(s) marked as read.");
+                        break;
+
+                    case "x":
+                    case "export":
+                        System.out.print("File (.jsonl.gz): ");
+                        String exportFile = scanner.nextLine().trim();
+                        long exported = new MailboxExporter().export(currentUser, Path.of(exportFile));
+                        System.out.println(exported + " email(s) exported to " + exportFile + ".");
+                        break;
+
                     case "q":
                     case "quit":
+                        alerts.cancel();
                         System.out.println("Logged out.");
                         return;
 
@@ -154,6 +248,76 @@ public class Main {
         }
     }
 
+    private static <T> void printPages(Scanner scanner, Function<MailboxCursor, Page<T>> fetch, Consumer<List<T>> printer) {
+        Page<T> page = fetch.apply(null);
+        printer.accept(page.items());
+        if (page.hasNext()) {
+            printPages(scanner, page.nextCursor(), fetch, printer);
+        }
+    }
+
+    private static <T> void printPages(Scanner scanner, MailboxCursor cursor,
+                                       Function<MailboxCursor, Page<T>> fetch, Consumer<List<T>> printer) {
+        while (cursor != null) {
+            System.out.print("[N]ext page, [B]ack: ");
+            String cmd = scanner.nextLine().trim().toLowerCase();
+            if (!cmd.equals("n") && !cmd.equals("next")) {
+                return;
+            }
+            Page<T> page = fetch.apply(cursor);
+            printer.accept(page.items());
+            cursor = page.nextCursor();
+        }
+    }
+
+    private static void printThreadList(List<ThreadSummary> threads) {
+        for (ThreadSummary thread : threads) {
+            System.out.println("+ " + thread.latestSenderEmail() + " - " + thread.subject() + " (" + thread.latestCode() + ")"
+                    + " [" + thread.messageCount() + " messages, " + thread.unreadCount() + " unread]");
+        }
+    }
+
+    private static void printSentList(List<Object[]> emails) {
+        for (Object[] row : emails) {
+            String emailSubject = (String) row[0];
+            String code = (String) row[1];
+            String emailRecipients = (String) row[2];
+
+            System.out.println("+ " + emailRecipients + " - " + emailSubject + " (" + code + ")");
+        }
+    }
+
+    private static class NewMailAlerts implements Flow.Subscriber<MailboxEvent> {
+        private volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(MailboxEvent event) {
+            System.out.println("\nNew mail from " + event.senderEmail() + ": " + event.subject() + " (" + event.code() + ")");
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("New mail alerts stopped: " + throwable.getMessage());
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void cancel() {
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+
     private static void handleSignup(Scanner scanner, UserService userService) {
         while (true) {
 
@@ -0,0 +1,38 @@
+package org.example.framework;
+
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+
+public class CacheStatistics {
+
+    public static String summary() {
+        Statistics statistics = SingletonSessionFactory.get().getStatistics();
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(String.format("second-level: %d hits, %d misses, %d puts%n",
+                statistics.getSecondLevelCacheHitCount(),
+                statistics.getSecondLevelCacheMissCount(),
+                statistics.getSecondLevelCachePutCount()));
+        builder.append(String.format("natural-id:   %d hits, %d misses, %d puts%n",
+                statistics.getNaturalIdCacheHitCount(),
+                statistics.getNaturalIdCacheMissCount(),
+                statistics.getNaturalIdCachePutCount()));
+        builder.append(String.format("query:        %d hits, %d misses, %d puts%n",
+                statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount()));
+
+        for (String region : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics regionStatistics = statistics.getCacheRegionStatistics(region);
+            if (regionStatistics == null) {
+                continue;
+            }
+            builder.append(String.format("  %s: %d hits, %d misses, %d in memory%n",
+                    region,
+                    regionStatistics.getHitCount(),
+                    regionStatistics.getMissCount(),
+                    regionStatistics.getElementCountInMemory()));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.framework;
+
+import com.sun.net.httpserver.HttpServer;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.HibernateMetrics;
+import org.hibernate.stat.Statistics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+// Per-operation timers and statement counts for the services, plus Hibernate statistics and pool metrics,
+// in one Prometheus registry. Set -Dmilou.metrics.port to serve it as text on http://127.0.0.1:<port>/metrics.
+public class ServiceMetrics {
+
+    private static final String PORT_PROPERTY = "milou.metrics.port";
+
+    private static class Holder {
+        private static final ServiceMetrics SHARED = new ServiceMetrics(new PrometheusMeterRegistry(PrometheusConfig.DEFAULT));
+    }
+
+    private final PrometheusMeterRegistry registry;
+    private HttpServer server;
+
+    public ServiceMetrics(PrometheusMeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public static ServiceMetrics shared() {
+        return Holder.SHARED;
+    }
+
+    public PrometheusMeterRegistry registry() {
+        return registry;
+    }
+
+    public <T> T call(String operation, Supplier<T> action) {
+        return call(operation, action, result -> false);
+    }
+
+    // outcome is "error" when the action throws and "failure" when failed accepts its result, i.e. the
+    // request was refused (wrong password, no valid recipients), so refusals are not counted as successes.
+    public <T> T call(String operation, Supplier<T> action, Predicate<? super T> failed) {
+        Timer.Sample sample = Timer.start(registry);
+        long statementsBefore = StatementCounter.current();
+        String outcome = "error";
+        try {
+            T result = action.get();
+            outcome = failed.test(result) ? "failure" : "success";
+            return result;
+        } finally {
+            sample.stop(timer(operation, outcome));
+            statements(operation).record(StatementCounter.current() - statementsBefore);
+        }
+    }
+
+    public void run(String operation, Runnable action) {
+        call(operation, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Async operations run their queries on other threads, so only the end-to-end latency is recorded.
+    public <T> CompletableFuture<T> callAsync(String operation, Supplier<CompletableFuture<T>> action,
+                                              Predicate<? super T> failed) {
+        Timer.Sample sample = Timer.start(registry);
+        return action.get().whenComplete((result, error) ->
+                sample.stop(timer(operation, error != null ? "error" : failed.test(result) ? "failure" : "success")));
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return Timer.builder("milou.service.duration")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private DistributionSummary statements(String operation) {
+        return DistributionSummary.builder("milou.service.statements")
+                .description("SQL statements prepared per call")
+                .tag("operation", operation)
+                .register(registry);
+    }
+
+    // Called once the SessionFactory is built.
+    public synchronized void bind(SessionFactory sessionFactory) {
+        HibernateMetrics.monitor(registry, sessionFactory, "milou");
+
+        Statistics statistics = sessionFactory.getStatistics();
+        hitRatio("second-level", statistics, Statistics::getSecondLevelCacheHitCount, Statistics::getSecondLevelCacheMissCount);
+        hitRatio("natural-id", statistics, Statistics::getNaturalIdCacheHitCount, Statistics::getNaturalIdCacheMissCount);
+        hitRatio("query", statistics, Statistics::getQueryCacheHitCount, Statistics::getQueryCacheMissCount);
+
+        // The pool's acquire timer (hikaricp.connections.acquire) is the connection acquisition time.
+        ConnectionProvider connectionProvider = sessionFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .requireService(ConnectionProvider.class);
+        if (connectionProvider.isUnwrappableAs(HikariDataSource.class)) {
+            HikariDataSource dataSource = connectionProvider.unwrap(HikariDataSource.class);
+            if (dataSource.getMetricRegistry() == null) {
+                dataSource.setMetricRegistry(registry);
+            }
+        }
+
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port != null && server == null) {
+            server = startEndpoint(port);
+            System.out.println("Metrics available at http://127.0.0.1:" + port + "/metrics");
+        }
+    }
+
+    private void hitRatio(String cache, Statistics statistics, ToDoubleFunction<Statistics> hits,
+                          ToDoubleFunction<Statistics> misses) {
+        Gauge.builder("milou.cache.hit.ratio", statistics, s -> {
+                    double hit = hits.applyAsDouble(s);
+                    double total = hit + misses.applyAsDouble(s);
+                    return total == 0 ? 0 : hit / total;
+                })
+                .tag("cache", cache)
+                .register(registry);
+    }
+
+    private HttpServer startEndpoint(int port) {
+        try {
+            HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+            httpServer.createContext("/metrics", exchange -> {
+                byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().put("Content-Type", List.of("text/plain; version=0.0.4; charset=utf-8"));
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            httpServer.start();
+            return httpServer;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start metrics endpoint on port " + port, e);
+        }
+    }
+
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+}
@@ -1,26 +1,97 @@
 package org.example.framework;
 
+import org.example.model.Email;
+import org.example.model.EmailBody;
+import org.example.model.EmailRecipient;
+import org.example.model.User;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class SingletonSessionFactory {
-    private static SessionFactory sessionFactory = null;
+    private static final String ENVIRONMENT_PROPERTY = "milou.env";
+    private static final String ENVIRONMENT_VARIABLE = "MILOU_ENV";
+    private static final String DEFAULT_ENVIRONMENT = "dev";
+
+    private static volatile boolean initialized = false;
+    private static final List<Runnable> closeHooks = new CopyOnWriteArrayList<>();
+
+    // Initialization-on-demand holder: the JVM guarantees the factory is built exactly once.
+    private static class Holder {
+        private static final SessionFactory SESSION_FACTORY = build();
+    }
 
     public static SessionFactory get() {
-        if (sessionFactory == null) {
-            sessionFactory = new Configuration()
-                    .configure("hibernate.cfg.xml")
-                    .buildSessionFactory();
+        return Holder.SESSION_FACTORY;
+    }
 
-        }
-        return sessionFactory;
+    // Runs before the factory closes, for components that still need it to finish their work.
+    public static void onClose(Runnable hook) {
+        closeHooks.add(hook);
     }
 
+    // Hooks run even if the factory was never built: a hook that flushes writes may build it first.
     public static void close() {
-        if (sessionFactory == null) {
+        for (Runnable hook : closeHooks) {
+            hook.run();
+        }
+        if (!initialized) {
             return;
         }
-        sessionFactory.close();
+        ServiceMetrics.shared().close();
+        Holder.SESSION_FACTORY.close();
+    }
+
+    public static String environment() {
+        String environment = System.getProperty(ENVIRONMENT_PROPERTY, System.getenv(ENVIRONMENT_VARIABLE));
+        return environment == null || environment.isBlank() ? DEFAULT_ENVIRONMENT : environment.trim().toLowerCase();
     }
-}
 
+    // Settings are layered: hibernate.cfg.xml, then hibernate-<env>.properties, then -Dhibernate.* overrides.
+    // Entities are registered here, so hibernate.cfg.xml needs no <mapping> entries.
+    private static SessionFactory build() {
+        Configuration configuration = new Configuration()
+                .configure("hibernate.cfg.xml")
+                .addAnnotatedClass(User.class)
+                .addAnnotatedClass(Email.class)
+                .addAnnotatedClass(EmailBody.class)
+                .addAnnotatedClass(EmailRecipient.class);
+
+        configuration.addProperties(loadProperties(environment()));
+
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("hibernate.")) {
+                configuration.setProperty(name, System.getProperty(name));
+            }
+        }
+
+        SessionFactory sessionFactory = configuration.buildSessionFactory();
+        DatabaseMigrations.migrate(sessionFactory);
+        ServiceMetrics.shared().bind(sessionFactory);
+        initialized = true;
+        return sessionFactory;
+    }
+
+    // A missing file almost always means a mistyped milou.env; booting without the pool, caches and
+    // statement inspector it configures would only fail later and less clearly.
+    private static Properties loadProperties(String environment) {
+        String resource = "hibernate-" + environment + ".properties";
+        Properties properties = new Properties();
+        try (InputStream in = SingletonSessionFactory.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("No " + resource + " on the classpath for environment '"
+                        + environment + "' (set with -D" + ENVIRONMENT_PROPERTY + " or " + ENVIRONMENT_VARIABLE + ").");
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + resource, e);
+        }
+        return properties;
+    }
+}
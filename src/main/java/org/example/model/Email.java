@@ -1,48 +1,96 @@
 package org.example.model;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.search.mapper.pojo.automaticindexing.ReindexOnUpdate;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.Indexed;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexedEmbedded;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexingDependency;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 @Entity
 @Table(name = "emails")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@Indexed
 public class Email {
+    // Every association is lazy. Listing, reading, replying and forwarding do not load Email entities:
+    // they read native projections (EmailService.toMailboxEntries, loadEmailAccess) that fetch exactly
+    // the columns each use case shows.
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Always the emails_seq table from V5, even on databases with native sequences (H2 in the benchmarks).
+    @GeneratedValue(generator = "emails_seq")
+    @GenericGenerator(name = "emails_seq", type = SequenceStyleGenerator.class, parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "emails_seq"),
+            @Parameter(name = SequenceStyleGenerator.FORCE_TBL_PARAM, value = "true"),
+            @Parameter(name = SequenceStyleGenerator.VALUE_COLUMN_PARAM, value = "next_val"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+            @Parameter(name = SequenceStyleGenerator.OPT_PARAM, value = "pooled")
+    })
     private Long id;
 
+    @FullTextField
     private String subject;
 
-    @Column(length = 5000)
-    private String body;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "body_id")
+    @IndexedEmbedded(includePaths = "text")
+    @IndexingDependency(reindexOnUpdate = ReindexOnUpdate.SHALLOW)
+    private EmailBody body;
 
+    @NaturalId
     @Column(nullable = false, unique = true)
     private String code;
 
     @Column(name = "sent_at", updatable = false)
     private LocalDateTime sentAt;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "sender_id")
+    @IndexedEmbedded(includePaths = "email")
+    @IndexingDependency(reindexOnUpdate = ReindexOnUpdate.SHALLOW)
     private User sender;
 
+    // Id of the thread's first email; null on that first email itself.
+    @Column(name = "thread_id")
+    private Long threadId;
+
+    @Column(name = "parent_id")
+    private Long parentId;
+
+    // Set by BulkImporter only; identifies the mbox message this email was imported from (V16).
+    @Column(name = "import_key", updatable = false)
+    private String importKey;
+
     @ManyToMany
+    @OrderBy("email")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @IndexedEmbedded(includePaths = "id")
+    @IndexingDependency(reindexOnUpdate = ReindexOnUpdate.SHALLOW)
     @JoinTable(
             name = "email_recipients",
             joinColumns = @JoinColumn(name = "email_id"),
             inverseJoinColumns = @JoinColumn(name = "recipient_id")
     )
-    private List<User> recipients = new ArrayList<>();
+    private Set<User> recipients = new LinkedHashSet<>();
 
     public Email() {}
 
-    public Email(String subject, String body, User sender, List<User> recipients, String code) {
+    public Email(String subject, EmailBody body, User sender, Collection<User> recipients, String code) {
         this.subject = subject;
         this.body = body;
         this.sender = sender;
-        this.recipients = recipients;
+        this.recipients = new LinkedHashSet<>(recipients);
         this.sentAt = LocalDateTime.now();
         this.code = code;
     }
@@ -64,10 +112,14 @@ public class Email {
     }
 
     public String getBody() {
+        return body == null ? null : body.getText();
+    }
+
+    public EmailBody getEmailBody() {
         return body;
     }
 
-    public void setBody(String body) {
+    public void setEmailBody(EmailBody body) {
         this.body = body;
     }
 
@@ -95,24 +147,52 @@ public class Email {
         this.sender = sender;
     }
 
-    public List<User> getRecipients() {
+    public Set<User> getRecipients() {
         return recipients;
     }
 
-    public void setRecipients(List<User> recipients) {
+    public void setRecipients(Set<User> recipients) {
         this.recipients = recipients;
     }
 
+    public Long getThreadId() {
+        return threadId;
+    }
+
+    public void setThreadId(Long threadId) {
+        this.threadId = threadId;
+    }
+
+    public Long getParentId() {
+        return parentId;
+    }
+
+    public void setParentId(Long parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getImportKey() {
+        return importKey;
+    }
+
+    public void setImportKey(String importKey) {
+        this.importKey = importKey;
+    }
+
+    // Links this email into the conversation of the email it replies to or forwards.
+    public void continueThread(long parentId, Long parentThreadId) {
+        this.parentId = parentId;
+        this.threadId = parentThreadId != null ? parentThreadId : parentId;
+    }
+
     @Override
     public String toString() {
         return "Email{" +
                 "id=" + id +
                 ", subject='" + subject + '\'' +
-                ", body='" + body + '\'' +
                 ", code='" + code + '\'' +
                 ", sentAt=" + sentAt +
-                ", sender=" + sender +
-                ", recipients=" + recipients +
+                ", senderId=" + (sender == null ? null : sender.getId()) +
                 '}';
     }
 }
@@ -0,0 +1,145 @@
+package org.example.model;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.search.mapper.pojo.automaticindexing.ReindexOnUpdate;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.IndexingDependency;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Content-addressed email body: identical texts share one row, keyed by their SHA-256 hash.
+@Entity
+@Table(name = "email_bodies")
+@Immutable
+@Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+@NaturalIdCache
+public class EmailBody {
+
+    public static final String DEFLATE = "DEFLATE";
+    public static final String NONE = "NONE";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @NaturalId
+    @Column(nullable = false, length = 64)
+    private String hash;
+
+    @Column(nullable = false, length = 16)
+    private String compression;
+
+    @Column(name = "original_length", nullable = false)
+    private int originalLength;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] payload;
+
+    public EmailBody() {}
+
+    private EmailBody(String hash, String compression, int originalLength, byte[] payload) {
+        this.hash = hash;
+        this.compression = compression;
+        this.originalLength = originalLength;
+        this.payload = payload;
+    }
+
+    // Keeps the deflated form only when it is actually smaller than the raw UTF-8 bytes.
+    public static EmailBody of(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = deflate(raw);
+        if (deflated.length < raw.length) {
+            return new EmailBody(hashOf(raw), DEFLATE, raw.length, deflated);
+        }
+        return new EmailBody(hashOf(raw), NONE, raw.length, raw);
+    }
+
+    public static String decode(String compression, byte[] payload) {
+        byte[] raw = DEFLATE.equals(compression) ? inflate(payload) : payload;
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public int getOriginalLength() {
+        return originalLength;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    @FullTextField(name = "text")
+    @IndexingDependency(reindexOnUpdate = ReindexOnUpdate.NO)
+    public String getText() {
+        return decode(compression, payload);
+    }
+
+    private static String hashOf(byte[] raw) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(raw));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] payload) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length * 3);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated email body payload.");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt email body payload.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
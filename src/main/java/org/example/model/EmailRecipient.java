@@ -14,17 +14,18 @@ public class EmailRecipient {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "email_id", nullable = false)
     private Email email;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "recipient_id", nullable = false)
     private User recipient;
 
-    @JoinColumn(name = "is_read")
+    @Column(name = "is_read")
     private boolean read = false;
 
+    @Column(name = "read_at")
     private LocalDateTime readAt;
 
     public EmailRecipient() {}
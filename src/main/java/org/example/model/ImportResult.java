@@ -0,0 +1,11 @@
+package org.example.model;
+
+import java.time.Duration;
+
+public record ImportResult(long imported, long skipped, Duration elapsed) {
+
+    public double perSecond() {
+        double seconds = elapsed.toNanos() / 1e9;
+        return seconds == 0 ? imported : imported / seconds;
+    }
+}
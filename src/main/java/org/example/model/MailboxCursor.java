@@ -0,0 +1,6 @@
+package org.example.model;
+
+import java.time.LocalDateTime;
+
+public record MailboxCursor(LocalDateTime sentAt, long id) {
+}
@@ -0,0 +1,7 @@
+package org.example.model;
+
+import java.time.LocalDateTime;
+
+public record MailboxEntry(long id, String code, String subject, String senderEmail, LocalDateTime sentAt,
+                           boolean read) {
+}
@@ -0,0 +1,17 @@
+package org.example.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+public record MailboxEvent(long recipientId, String code, String subject, String senderEmail, LocalDateTime sentAt) {
+
+    public static List<MailboxEvent> deliveries(Email email, String senderEmail, Collection<Long> recipientIds) {
+        List<MailboxEvent> events = new ArrayList<>(recipientIds.size());
+        for (Long recipientId : recipientIds) {
+            events.add(new MailboxEvent(recipientId, email.getCode(), email.getSubject(), senderEmail, email.getSentAt()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public record Page<T>(List<T> items, MailboxCursor nextCursor) {
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    // Expects rows fetched with a limit of pageSize + 1; the extra row only signals that a next page exists.
+    public static <T> Page<T> of(List<T> rows, int pageSize, Function<T, MailboxCursor> cursorOf) {
+        checkPageSize(pageSize);
+        if (rows.size() <= pageSize) {
+            return new Page<>(rows, null);
+        }
+        List<T> items = new ArrayList<>(rows.subList(0, pageSize));
+        return new Page<>(items, cursorOf.apply(items.get(pageSize - 1)));
+    }
+
+    // Called before the pageSize + 1 query limit is computed, so a bad size never reaches the database.
+    public static void checkPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+    }
+}
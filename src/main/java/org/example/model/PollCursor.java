@@ -0,0 +1,8 @@
+package org.example.model;
+
+import java.util.List;
+
+// Every email_recipients row with id <= settled has been delivered or is past the poll window;
+// recent holds the ids above settled that were already delivered, so a re-scan can skip them.
+public record PollCursor(long settled, List<Long> recent) {
+}
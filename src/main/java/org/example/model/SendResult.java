@@ -0,0 +1,18 @@
+package org.example.model;
+
+import java.util.List;
+
+public record SendResult(String code, List<String> recipientEmails, List<String> unknownEmails, String error) {
+
+    public static SendResult sent(String code, List<String> recipientEmails, List<String> unknownEmails) {
+        return new SendResult(code, recipientEmails, unknownEmails, null);
+    }
+
+    public static SendResult rejected(String error, List<String> unknownEmails) {
+        return new SendResult(null, List.of(), unknownEmails, error);
+    }
+
+    public boolean isSent() {
+        return error == null;
+    }
+}
@@ -0,0 +1,8 @@
+package org.example.model;
+
+import java.time.LocalDateTime;
+
+// One row of the thread-collapsed inbox: the latest message the user received in the thread plus counts.
+public record ThreadSummary(long threadId, long latestId, String latestCode, String subject, String latestSenderEmail,
+                            LocalDateTime lastSentAt, int messageCount, int unreadCount) {
+}
@@ -1,28 +1,40 @@
 package org.example.model;
 
 import jakarta.persistence.*;
-import org.mindrot.jbcrypt.BCrypt;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.FullTextField;
+import org.hibernate.search.mapper.pojo.mapping.definition.annotation.GenericField;
+
+import java.util.Objects;
 
 @Entity
 @Table(name = "users")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@NaturalIdCache
 public class User {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GenericField
     private Long id;
 
     @Column(nullable = false)
     private String name;
 
-    public User(String name, String email, String password) {
+    public User(String name, String email, String passwordHash) {
         this.name = name;
         setEmail(email);
-        setPassword(password);
+        setPassword(passwordHash);
     }
 
     public User() {
     }
 
+    @NaturalId
+    @FullTextField
     @Column(unique = true, nullable = false)
     private String email;
 
@@ -54,12 +66,25 @@ public class User {
         return password;
     }
 
-    public void setPassword(String password) {
-        this.password = BCrypt.hashpw(password, BCrypt.gensalt());
+    public void setPassword(String passwordHash) {
+        this.password = passwordHash;
     }
 
-    public boolean checkPassword(String plainPassword) {
-        return BCrypt.checkpw(plainPassword, this.password);
+    // Identity is the database id, read through getId() so comparing a proxy never initializes it.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof User other)) {
+            return false;
+        }
+        return getId() != null && getId().equals(other.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
     }
 
     @Override
@@ -0,0 +1,485 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.Email;
+import org.example.model.EmailBody;
+import org.example.model.ImportResult;
+import org.example.model.User;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.search.mapper.orm.Search;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.example.services.UserService.normalizeEmail;
+
+// Streaming importer for users (CSV: name,email,password) and messages (mbox). Input is read and written
+// in chunks of CHUNK_SIZE, one transaction per chunk, so memory stays flat however large the file is.
+public class BulkImporter {
+
+    private static final int CHUNK_SIZE = 500;
+    // Matches hibernate.jdbc.batch_size: one JDBC batch per flush, then the session is cleared.
+    private static final int FLUSH_INTERVAL = 50;
+    private static final long REPORT_INTERVAL_NANOS = Duration.ofSeconds(2).toNanos();
+    private static final Pattern ADDRESS = Pattern.compile("[^\\s<>,;\"']+@[^\\s<>,;\"']+");
+    // Column widths from V1; longer values are skipped rather than cut short by the database.
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final int MAX_EMAIL_LENGTH = 255;
+    // Subjects are cut to fit instead.
+    private static final int MAX_SUBJECT_LENGTH = 255;
+
+    private final UserService userService;
+    private final PasswordHasher passwordHasher;
+    private final EmailCodeGenerator codeGenerator;
+
+    public BulkImporter() {
+        this(new UserService(), PasswordHasher.shared(), new SequenceEmailCodeGenerator());
+    }
+
+    public BulkImporter(UserService userService, PasswordHasher passwordHasher, EmailCodeGenerator codeGenerator) {
+        this.userService = userService;
+        this.passwordHasher = passwordHasher;
+        this.codeGenerator = codeGenerator;
+    }
+
+    // Rows that fail register()'s checks, do not fit the users columns or whose address already exists
+    // are skipped.
+    public ImportResult importUsers(Path csv) {
+        Progress progress = new Progress("users");
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            List<String[]> chunk = new ArrayList<>(CHUNK_SIZE);
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] row = parseCsvLine(line);
+                if (first) {
+                    first = false;
+                    if (row.length >= 2 && row[1].trim().equalsIgnoreCase("email")) {
+                        continue;
+                    }
+                }
+                chunk.add(row);
+                if (chunk.size() == CHUNK_SIZE) {
+                    importUserChunk(chunk, progress);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importUserChunk(chunk, progress);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + csv, e);
+        }
+        return progress.finish();
+    }
+
+    private void importUserChunk(List<String[]> rows, Progress progress) {
+        Map<String, String[]> byEmail = new LinkedHashMap<>();
+        int skipped = 0;
+        for (String[] row : rows) {
+            if (row.length < 3 || row[0].isBlank() || row[1].isBlank() || row[2].length() < 8) {
+                skipped++;
+                continue;
+            }
+            String name = row[0].trim();
+            String email = normalizeEmail(row[1].trim());
+            if (name.length() > MAX_NAME_LENGTH || email.length() > MAX_EMAIL_LENGTH) {
+                skipped++;
+                continue;
+            }
+            if (byEmail.putIfAbsent(email, new String[]{name, email, row[2]}) != null) {
+                skipped++;
+            }
+        }
+
+        Set<String> existing = SingletonSessionFactory.get().fromTransaction(session ->
+                userService.findByEmails(session, byEmail.keySet()).keySet());
+        byEmail.keySet().removeAll(existing);
+        skipped += existing.size();
+
+        List<String[]> users = new ArrayList<>(byEmail.values());
+        if (users.isEmpty()) {
+            progress.add(0, skipped);
+            return;
+        }
+
+        List<String> passwords = new ArrayList<>(users.size());
+        for (String[] user : users) {
+            passwords.add(user[2]);
+        }
+        List<String> hashes = passwordHasher.hashAll(passwords);
+
+        // users.id is IDENTITY, which rules out Hibernate insert batching, so the chunk goes out as one
+        // multi-row insert. The no-op update skips addresses registered since the lookup above without
+        // turning every other error into a warning the way "insert ignore" does. Its row count also counts
+        // those skipped rows, so the rows that went in are counted by their (salted, unique) hashes.
+        int inserted = SingletonSessionFactory.get().fromTransaction(session -> {
+            StringBuilder sql = new StringBuilder("insert into users (name, email, password) values ");
+            for (int i = 0; i < users.size(); i++) {
+                sql.append(i == 0 ? "" : ", ").append("(:name").append(i).append(", :email").append(i)
+                        .append(", :password").append(i).append(")");
+            }
+            sql.append(" on duplicate key update id = id");
+            NativeQuery<?> insert = session.createNativeQuery(sql.toString())
+                    .addSynchronizedEntityClass(User.class);
+            for (int i = 0; i < users.size(); i++) {
+                insert.setParameter("name" + i, users.get(i)[0])
+                        .setParameter("email" + i, users.get(i)[1])
+                        .setParameter("password" + i, hashes.get(i));
+            }
+            insert.executeUpdate();
+
+            return ((Number) session.createNativeQuery("""
+                                select count(*)
+                                from users
+                                where email in (:emails)
+                                  and password in (:hashes)
+                            """)
+                    .setParameter("emails", new ArrayList<>(byEmail.keySet()))
+                    .setParameter("hashes", hashes)
+                    .getSingleResult()).intValue();
+        });
+
+        progress.add(inserted, skipped + users.size() - inserted);
+    }
+
+    // Messages whose sender is not a registered user, or with no registered recipient, are skipped.
+    // Unknown recipients of an imported message are dropped from it. Messages imported before, by this
+    // or an earlier run, are skipped too, so a failed import can simply be run again.
+    public ImportResult importMbox(Path mbox) {
+        Progress progress = new Progress("messages");
+        try (MboxReader reader = new MboxReader(Files.newBufferedReader(mbox, StandardCharsets.UTF_8))) {
+            List<MboxMessage> chunk = new ArrayList<>(CHUNK_SIZE);
+            MboxMessage message;
+            while ((message = reader.next()) != null) {
+                chunk.add(message);
+                if (chunk.size() == CHUNK_SIZE) {
+                    importMessageChunk(chunk, progress);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                importMessageChunk(chunk, progress);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + mbox, e);
+        }
+        return progress.finish();
+    }
+
+    private void importMessageChunk(List<MboxMessage> messages, Progress progress) {
+        Set<String> addresses = new HashSet<>();
+        for (MboxMessage message : messages) {
+            if (message.sender() != null) {
+                addresses.add(message.sender());
+            }
+            addresses.addAll(message.recipients());
+        }
+        Map<String, Long> userIds = new HashMap<>();
+        SingletonSessionFactory.get().inTransaction(session -> {
+            for (Map.Entry<String, User> entry : userService.findByEmails(session, addresses).entrySet()) {
+                userIds.put(entry.getKey(), entry.getValue().getId());
+            }
+        });
+        // Only messages with a known sender and at least one known recipient are stored, so skipped
+        // messages leave no orphaned body behind.
+        List<MboxMessage> accepted = new ArrayList<>(messages.size());
+        for (MboxMessage message : messages) {
+            boolean knownSender = message.sender() != null && userIds.containsKey(message.sender());
+            if (knownSender && message.recipients().stream().anyMatch(userIds::containsKey)) {
+                accepted.add(message);
+            }
+        }
+        int skipped = messages.size() - accepted.size();
+        if (accepted.isEmpty()) {
+            progress.add(0, skipped);
+            return;
+        }
+        // Compressing and hashing the bodies is pure CPU work, so it runs before the transaction opens.
+        List<EmailBody> candidates = accepted.parallelStream()
+                .map(message -> EmailBody.of(message.body()))
+                .toList();
+
+        Map<String, Integer> byImportKey = new LinkedHashMap<>();
+        for (int i = 0; i < accepted.size(); i++) {
+            byImportKey.putIfAbsent(importKey(accepted.get(i), candidates.get(i)), i);
+        }
+        Set<String> existingKeys = SingletonSessionFactory.get().fromTransaction(session ->
+                findImportKeys(session, byImportKey.keySet()));
+        byImportKey.keySet().removeAll(existingKeys);
+        skipped += accepted.size() - byImportKey.size();
+        if (byImportKey.isEmpty()) {
+            progress.add(0, skipped);
+            return;
+        }
+        List<String> importKeys = new ArrayList<>(byImportKey.keySet());
+        List<MboxMessage> fresh = new ArrayList<>(importKeys.size());
+        List<EmailBody> bodies = new ArrayList<>(importKeys.size());
+        for (int index : byImportKey.values()) {
+            fresh.add(accepted.get(index));
+            bodies.add(candidates.get(index));
+        }
+
+        int imported = SingletonSessionFactory.get().fromTransaction(session -> {
+            Map<String, EmailBody> storedBodies = EmailBodyStore.storeAll(session, bodies);
+
+            List<Long> emailIds = new ArrayList<>(fresh.size());
+            int pending = 0;
+            for (int i = 0; i < fresh.size(); i++) {
+                MboxMessage message = fresh.get(i);
+                List<User> recipients = new ArrayList<>();
+                for (String recipient : message.recipients()) {
+                    Long recipientId = userIds.get(recipient);
+                    if (recipientId != null) {
+                        recipients.add(session.getReference(User.class, recipientId));
+                    }
+                }
+
+                Email email = new Email(message.subject(), storedBodies.get(bodies.get(i).getHash()),
+                        session.getReference(User.class, userIds.get(message.sender())), recipients,
+                        codeGenerator.nextCode());
+                if (message.sentAt() != null) {
+                    email.setSentAt(message.sentAt());
+                }
+                email.setImportKey(importKeys.get(i));
+                session.persist(email);
+                emailIds.add(email.getId());
+
+                if (++pending == FLUSH_INTERVAL) {
+                    flushAndClear(session);
+                    pending = 0;
+                }
+            }
+            flushAndClear(session);
+            MailboxFanout.write(session, emailIds);
+            ThreadSummaryStore.write(session, emailIds);
+            return emailIds.size();
+        });
+        progress.add(imported, skipped);
+    }
+
+    // A hash of the Message-ID header, which the sender's system makes unique. Messages without one are
+    // keyed by sender, Date header and body, which are the same each time the same mbox is read.
+    private static String importKey(MboxMessage message, EmailBody body) {
+        String source = message.messageId() != null
+                ? "message-id\n" + message.messageId()
+                : "content\n" + message.sender() + "\n" + Objects.toString(message.date(), "") + "\n" + body.getHash();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    // Archived mail counts as imported too, or an import would bring back what retention moved away.
+    private static Set<String> findImportKeys(Session session, Collection<String> keys) {
+        List<String> found = session.createNativeQuery("""
+                            select import_key from emails where import_key in (:keys)
+                            union all
+                            select import_key from emails_archive where import_key in (:keys)
+                        """, String.class)
+                .setParameter("keys", keys)
+                .getResultList();
+        return new HashSet<>(found);
+    }
+
+    // The search index must be written before clear() discards the entities it is built from.
+    private static void flushAndClear(Session session) {
+        session.flush();
+        Search.session(session).indexingPlan().execute();
+        session.clear();
+    }
+
+    // Splits one CSV line; supports quoted fields with "" escapes, but not line breaks inside quotes.
+    static String[] parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    // Cuts before a surrogate pair rather than through it, so the result is still valid text.
+    static String truncate(String value, int maxLength) {
+        if (value.length() <= maxLength) {
+            return value;
+        }
+        int end = Character.isHighSurrogate(value.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return value.substring(0, end);
+    }
+
+    // date is the Date header as written, sentAt its parsed value.
+    private record MboxMessage(String messageId, String sender, List<String> recipients, String subject,
+                               String date, LocalDateTime sentAt, String body) {
+    }
+
+    // Reads one message at a time: a "From " line starts a message, headers run to the first blank line,
+    // and ">From " quoting in the body is undone (mboxrd).
+    private static class MboxReader implements AutoCloseable {
+        private final BufferedReader reader;
+        private String lookahead;
+
+        MboxReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            do {
+                lookahead = reader.readLine();
+            } while (lookahead != null && !lookahead.startsWith("From "));
+        }
+
+        MboxMessage next() throws IOException {
+            if (lookahead == null) {
+                return null;
+            }
+            Map<String, String> headers = new HashMap<>();
+            String lastHeader = null;
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                if ((line.startsWith(" ") || line.startsWith("\t")) && lastHeader != null) {
+                    headers.merge(lastHeader, " " + line.trim(), String::concat);
+                    continue;
+                }
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    lastHeader = line.substring(0, colon).trim().toLowerCase();
+                    headers.merge(lastHeader, line.substring(colon + 1).trim(), (a, b) -> a + ", " + b);
+                }
+            }
+
+            StringBuilder body = new StringBuilder();
+            lookahead = null;
+            if (line != null) {
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("From ")) {
+                        lookahead = line;
+                        break;
+                    }
+                    if (line.matches(">+From .*")) {
+                        line = line.substring(1);
+                    }
+                    body.append(line).append('\n');
+                }
+            }
+            // The blank line separating messages belongs to the mbox format, not to the body.
+            if (!body.isEmpty() && lookahead != null) {
+                body.setLength(body.length() - 1);
+            }
+
+            List<String> senders = addresses(headers.get("from"));
+            List<String> recipients = addresses(String.join(", ",
+                    headers.getOrDefault("to", ""), headers.getOrDefault("cc", "")));
+            String messageId = headers.get("message-id");
+            return new MboxMessage(messageId == null || messageId.isBlank() ? null : messageId,
+                    senders.isEmpty() ? null : senders.get(0), recipients,
+                    truncate(headers.getOrDefault("subject", ""), MAX_SUBJECT_LENGTH),
+                    headers.get("date"), parseDate(headers.get("date")), body.toString().stripTrailing());
+        }
+
+        private static List<String> addresses(String header) {
+            List<String> addresses = new ArrayList<>();
+            if (header == null) {
+                return addresses;
+            }
+            Matcher matcher = ADDRESS.matcher(header);
+            while (matcher.find()) {
+                String address = normalizeEmail(matcher.group());
+                if (!addresses.contains(address)) {
+                    addresses.add(address);
+                }
+            }
+            return addresses;
+        }
+
+        private static LocalDateTime parseDate(String header) {
+            if (header == null) {
+                return null;
+            }
+            String value = header.replaceAll("\\s*\\(.*\\)\\s*$", "").trim();
+            try {
+                return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .withZoneSameInstant(ZoneId.systemDefault())
+                        .toLocalDateTime();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class Progress {
+        private final String label;
+        private final long startNanos = System.nanoTime();
+        private long lastReportNanos = startNanos;
+        private long imported;
+        private long skipped;
+
+        Progress(String label) {
+            this.label = label;
+        }
+
+        void add(long importedCount, long skippedCount) {
+            imported += importedCount;
+            skipped += skippedCount;
+            long now = System.nanoTime();
+            if (now - lastReportNanos >= REPORT_INTERVAL_NANOS) {
+                lastReportNanos = now;
+                System.out.println(line(now));
+            }
+        }
+
+        ImportResult finish() {
+            long now = System.nanoTime();
+            System.out.println(line(now) + " - done");
+            return new ImportResult(imported, skipped, Duration.ofNanos(now - startNanos));
+        }
+
+        private String line(long now) {
+            double seconds = (now - startNanos) / 1e9;
+            return String.format("%s: %d imported, %d skipped (%.0f/s)",
+                    label, imported, skipped, seconds == 0 ? 0 : imported / seconds);
+        }
+    }
+}
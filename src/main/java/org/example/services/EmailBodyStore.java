@@ -0,0 +1,113 @@
+package org.example.services;
+
+import jakarta.persistence.LockModeType;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import org.example.model.EmailBody;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EmailBodyStore {
+
+    // Returns the stored body with the same content if there is one, otherwise persists a new one.
+    public static EmailBody store(Session session, String text) {
+        EmailBody candidate = EmailBody.of(text);
+        EmailBody existing = session.bySimpleNaturalId(EmailBody.class).load(candidate.getHash());
+        if (existing != null) {
+            return existing;
+        }
+        return insertOrLoad(session, candidate);
+    }
+
+    // Bulk variant for imports: resolves existing bodies with one "in (...)" query and persists the rest.
+    // The result is keyed by hash.
+    public static Map<String, EmailBody> storeAll(Session session, Collection<EmailBody> candidates) {
+        Map<String, EmailBody> byHash = new HashMap<>();
+        for (EmailBody candidate : candidates) {
+            byHash.putIfAbsent(candidate.getHash(), candidate);
+        }
+        if (byHash.isEmpty()) {
+            return byHash;
+        }
+
+        List<EmailBody> existing = session.createNativeQuery(
+                        "select * from email_bodies where hash in (:hashes)", EmailBody.class)
+                .setParameter("hashes", new ArrayList<>(byHash.keySet()))
+                .getResultList();
+        for (EmailBody body : existing) {
+            byHash.put(body.getHash(), body);
+        }
+        for (Map.Entry<String, EmailBody> entry : byHash.entrySet()) {
+            if (entry.getValue().getId() == null) {
+                entry.setValue(insertOrLoad(session, entry.getValue()));
+            }
+        }
+        return byHash;
+    }
+
+    // Two transactions can miss the lookup for the same text at once. The insert runs under a savepoint,
+    // so the loser's duplicate-key error only undoes the insert and it reuses the winner's row instead.
+    private static EmailBody insertOrLoad(Session session, EmailBody candidate) {
+        Long id = session.doReturningWork(connection -> {
+            Savepoint savepoint = connection.setSavepoint();
+            Long inserted;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into email_bodies (hash, compression, original_length, payload) values (?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                insert.setString(1, candidate.getHash());
+                insert.setString(2, candidate.getCompression());
+                insert.setInt(3, candidate.getOriginalLength());
+                insert.setBytes(4, candidate.getPayload());
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                    inserted = keys.getLong(1);
+                }
+            } catch (SQLIntegrityConstraintViolationException e) {
+                connection.rollback(savepoint);
+                inserted = null;
+            }
+            // Savepoints otherwise pile up until commit, one per new body in an import chunk.
+            connection.releaseSavepoint(savepoint);
+            return inserted;
+        });
+
+        if (id != null) {
+            evictIfRolledBack(session, id);
+            return session.get(EmailBody.class, id);
+        }
+        // A locking read sees the winner's committed row even under REPEATABLE READ.
+        return session.createQuery("from EmailBody b where b.hash = :hash", EmailBody.class)
+                .setParameter("hash", candidate.getHash())
+                .setLockMode(LockModeType.PESSIMISTIC_READ)
+                .getSingleResult();
+    }
+
+    // The read-only cache keeps what session.get() puts there even if the insert is rolled back, and a
+    // later send with the same text would then reference a row that does not exist.
+    private static void evictIfRolledBack(Session session, long id) {
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    session.getSessionFactory().getCache().evictEntityData(EmailBody.class, id);
+                    session.getSessionFactory().getCache().evictNaturalIdData(EmailBody.class);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,6 @@
+package org.example.services;
+
+public interface EmailCodeGenerator {
+
+    String nextCode();
+}
@@ -1,360 +1,1028 @@
 package org.example.services;
 
+import org.example.framework.ServiceMetrics;
 import org.example.framework.SingletonSessionFactory;
 import org.example.model.Email;
+import org.example.model.EmailBody;
+import org.example.model.MailboxCursor;
+import org.example.model.MailboxEntry;
+import org.example.model.MailboxEvent;
+import org.example.model.Page;
+import org.example.model.PollCursor;
+import org.example.model.PollResult;
+import org.example.model.SendResult;
+import org.example.model.ThreadSummary;
 import org.example.model.User;
 import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.hibernate.search.engine.search.common.BooleanOperator;
+import org.hibernate.search.mapper.orm.Search;
 
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import static org.example.services.UserService.normalizeEmail;
+import static org.example.services.UserService.normalizeEmails;
 
 public class EmailService {
 
     private UserService userService = new UserService();
+    private final EmailCodeGenerator codeGenerator;
+    private final EmailWriteBatcher writeBatcher;
+    private final MailboxEventBus eventBus = MailboxEventBus.shared();
+    private final ServiceMetrics metrics = ServiceMetrics.shared();
+    private static final int POLL_LIMIT = 100;
+    private static final int POLL_WINDOW_SECONDS = Integer.getInteger("milou.poll.window.seconds", 60);
+    private static final int IN_CLAUSE_CHUNK_SIZE = 500;
+    private final ExecutorService sendExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public EmailService() {
+        this(new SequenceEmailCodeGenerator());
+    }
+
+    public EmailService(EmailCodeGenerator codeGenerator) {
+        this(codeGenerator, EmailWriteBatcher.shared());
+    }
+
+    public EmailService(EmailCodeGenerator codeGenerator, EmailWriteBatcher writeBatcher) {
+        this.codeGenerator = codeGenerator;
+        this.writeBatcher = writeBatcher;
+    }
 
     public void sendEmail(User sender, String recipientsRaw, String subject, String body) {
-        String[] parts = recipientsRaw.split("[,\\s]+");
-        List<User> recipients = new ArrayList<>();
+        metrics.call("email.send", () -> {
+            List<String> addresses = Arrays.asList(recipientsRaw.split("[,\\s]+"));
 
-        for (String part : parts) {
-            String email = part.trim();
-            if (!email.contains("@")) {
-                email += "@milou.com";
-            }
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<User> recipients = resolveRecipients(session, addresses);
+
+                if (recipients.isEmpty()) {
+                    System.err.println("No valid recipients. Email not sent.\n");
+                    return false;
+                }
+
+                String code = codeGenerator.nextCode();
+
+                Email email = new Email(subject, EmailBodyStore.store(session, body), sender, recipients, code);
+                session.persist(email);
+                MailboxFanout.write(session, List.of(email.getId()));
+                ThreadSummaryStore.write(session, List.of(email.getId()));
+                eventBus.publishAfterCommit(session, MailboxEvent.deliveries(email, sender.getEmail(), idsOf(recipients)));
+
+                System.out.println("Successfully sent your email.");
+                System.out.println("Code: " + code);
+                return true;
+            });
+        }, done -> !done);
+    }
 
-            User recipient = userService.findByEmail(email);
+    // Resolves every address in one pass and reports all unknown addresses together.
+    public List<User> resolveRecipients(Session session, Collection<String> addresses) {
+        RecipientResolution resolution = resolve(session, addresses);
+
+        if (!resolution.unknown().isEmpty()) {
+            System.err.println("User(s) not found: " + String.join(", ", resolution.unknown()) + "\n");
+        }
+        return resolution.found();
+    }
+
+    private record RecipientResolution(List<User> found, List<String> unknown) {
+    }
+
+    private RecipientResolution resolve(Session session, Collection<String> addresses) {
+        List<String> normalizedEmails = normalizeEmails(addresses);
+        Map<String, User> found = userService.findByEmails(session, normalizedEmails);
+
+        List<User> recipients = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        for (String email : normalizedEmails) {
+            User recipient = found.get(email);
             if (recipient != null) {
                 recipients.add(recipient);
             } else {
-                System.err.println("User not found: " + email + "\n");
+                unknown.add(email);
             }
         }
+        return new RecipientResolution(recipients, unknown);
+    }
+
+    // Async send path. Recipient resolution and validation, then code allocation, run on virtual
+    // threads; the persist is handed to the write batcher, which group-commits concurrent sends.
+    public CompletableFuture<SendResult> sendEmailAsync(User sender, String recipientsRaw, String subject, String body) {
+        return metrics.callAsync("email.send.async", () -> {
+            List<String> addresses = Arrays.asList(recipientsRaw.split("[,\\s]+"));
+
+            return CompletableFuture
+                    .supplyAsync(() -> SingletonSessionFactory.get().fromTransaction(session -> {
+                        RecipientResolution resolution = resolve(session, addresses);
+                        return Draft.of(sender, subject, body, null, resolution.found(), resolution.unknown(), null);
+                    }), sendExecutor)
+                    .thenCompose(this::allocateAndPersistAsync);
+        }, result -> !result.isSent());
+    }
+
+    public CompletableFuture<SendResult> replyToEmailAsync(User replier, String originalCode, String replyBody) {
+        return metrics.callAsync("email.reply.async", () -> {
+            return CompletableFuture
+                    .supplyAsync(() -> SingletonSessionFactory.get().fromTransaction(session -> {
+                        EmailAccess original = loadEmailAccess(session, originalCode, replier.getId());
+                        if (original == null) {
+                            return Draft.rejected("Email not found.");
+                        }
+                        if (!original.isSender() && !original.isRecipient()) {
+                            return Draft.rejected("You cannot reply to this email.");
+                        }
+
+                        Map<Long, String> replyTo = new LinkedHashMap<>();
+                        if (original.senderId() != replier.getId()) {
+                            replyTo.put(original.senderId(), original.senderEmail());
+                        }
+                        for (Recipient r : original.recipients()) {
+                            if (r.id() != replier.getId()) {
+                                replyTo.putIfAbsent(r.id(), r.email());
+                            }
+                        }
+                        if (replyTo.isEmpty()) {
+                            return Draft.rejected("No one to reply to.");
+                        }
+                        return new Draft(replier, "[Re] " + original.subject(), replyBody, null, replyTo, List.of(),
+                                original, null, null);
+                    }), sendExecutor)
+                    .thenCompose(this::allocateAndPersistAsync);
+        }, result -> !result.isSent());
+    }
 
-        if (recipients.isEmpty()) {
-            System.err.println("No valid recipients. Email not sent.\n");
-            return;
+    public CompletableFuture<SendResult> forwardEmailAsync(User forwarder, String originalCode, List<String> recipientEmails) {
+        return metrics.callAsync("email.forward.async", () -> {
+            return CompletableFuture
+                    .supplyAsync(() -> SingletonSessionFactory.get().fromTransaction(session -> {
+                        EmailAccess original = loadEmailAccess(session, originalCode, forwarder.getId());
+                        if (original == null) {
+                            return Draft.rejected("Original email not found.");
+                        }
+                        if (!original.isSender() && !original.isRecipient()) {
+                            return Draft.rejected("You cannot forward this email.");
+                        }
+
+                        RecipientResolution resolution = resolve(session, recipientEmails);
+                        return Draft.of(forwarder, "[Fw] " + original.subject(), null, original.bodyId(),
+                                resolution.found(), resolution.unknown(), original);
+                    }), sendExecutor)
+                    .thenCompose(this::allocateAndPersistAsync);
+        }, result -> !result.isSent());
+    }
+
+    // A draft carries either the body text or, for forwards, the id of the stored body it reuses.
+    // parent is the email being replied to or forwarded, if any.
+    private record Draft(User sender, String subject, String body, Long bodyId, Map<Long, String> recipients,
+                         List<String> unknown, EmailAccess parent, String rejection, String code) {
+
+        static Draft of(User sender, String subject, String body, Long bodyId, List<User> recipients,
+                        List<String> unknown, EmailAccess parent) {
+            if (recipients.isEmpty()) {
+                return new Draft(sender, subject, body, bodyId, Map.of(), unknown, parent, "No valid recipients.", null);
+            }
+            Map<Long, String> byId = new LinkedHashMap<>();
+            for (User recipient : recipients) {
+                byId.put(recipient.getId(), recipient.getEmail());
+            }
+            return new Draft(sender, subject, body, bodyId, byId, unknown, parent, null, null);
         }
 
-        SingletonSessionFactory.get().inTransaction(session -> {
-            String code = generateUniqueCode(session);
+        static Draft rejected(String rejection) {
+            return new Draft(null, null, null, null, Map.of(), List.of(), null, rejection, null);
+        }
+
+        Draft withCode(String code) {
+            return new Draft(sender, subject, body, bodyId, recipients, unknown, parent, rejection, code);
+        }
+    }
+
+    private CompletableFuture<SendResult> allocateAndPersistAsync(Draft draft) {
+        if (draft.rejection() != null) {
+            return CompletableFuture.completedFuture(SendResult.rejected(draft.rejection(), draft.unknown()));
+        }
+        return CompletableFuture
+                .supplyAsync(() -> draft.withCode(codeGenerator.nextCode()), sendExecutor)
+                .thenCompose(this::persistDraft);
+    }
 
-            Email email = new Email(subject, body, sender, recipients, code);
-            session.persist(email);
+    private CompletableFuture<SendResult> persistDraft(Draft draft) {
+        EmailAccess parent = draft.parent();
+        EmailWriteBatcher.EmailWrite write = new EmailWriteBatcher.EmailWrite(draft.sender().getId(),
+                draft.sender().getEmail(), draft.recipients().keySet(), draft.subject(), draft.body(), draft.bodyId(),
+                draft.code(), parent == null ? null : parent.id(), parent == null ? null : parent.threadId());
 
-            System.out.println("Successfully sent your email.");
-            System.out.println("Code: " + code);
+        return writeBatcher.submit(write)
+                .thenApply(emailId -> SendResult.sent(draft.code(),
+                        new ArrayList<>(draft.recipients().values()), draft.unknown()));
+    }
+
+    public List<MailboxEntry> getAllReceivedEmails(User user) {
+        return metrics.call("email.list.received", () -> {
+            if (MailboxFanout.isReadable()) {
+                return MailboxFanout.getReceivedEmails(user, false);
+            }
+            return SingletonSessionFactory.get().fromTransaction(session ->
+                    toMailboxEntries(session.createNativeQuery("""
+                                        select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read
+                                        from emails e
+                                        join email_recipients er on er.email_id = e.id
+                                        join users s on s.id = e.sender_id
+                                        where er.recipient_id = :userId
+                                        order by e.sent_at DESC
+                                    """, Object[].class)
+                            .setParameter("userId", user.getId())
+                            .getResultList())
+            );
         });
     }
 
-    public List<Email> getAllReceivedEmails(User user) {
-        return SingletonSessionFactory.get().fromTransaction(session ->
-                session.createNativeQuery("""
-                                    select e.* from emails e
-                                    join email_recipients er on er.email_id = e.id
-                                    where er.recipient_id = :userId
-                                    order by e.sent_at DESC
-                                """, Email.class)
+    public List<MailboxEntry> getUnreadEmails(User user) {
+        return metrics.call("email.list.unread", () -> {
+            if (MailboxFanout.isReadable()) {
+                return MailboxFanout.getReceivedEmails(user, true);
+            }
+            return SingletonSessionFactory.get().fromTransaction(session ->
+                    toMailboxEntries(session.createNativeQuery("""
+                                        select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read
+                                        from emails e
+                                        join email_recipients er on e.id = er.email_id
+                                        join users s on s.id = e.sender_id
+                                        where er.recipient_id = :userId
+                                          and er.is_read = false
+                                        order by e.sent_at DESC
+                                    """, Object[].class)
+                            .setParameter("userId", user.getId())
+                            .getResultList())
+            );
+        });
+    }
+
+    public long countUnreadEmails(User user) {
+        return metrics.call("email.count.unread", () -> {
+            if (MailboxFanout.isReadable()) {
+                return MailboxFanout.countUnreadEmails(user);
+            }
+            return SingletonSessionFactory.get().fromTransaction(session ->
+                    ((Number) session.createNativeQuery("""
+                                        select count(*)
+                                        from email_recipients
+                                        where recipient_id = :userId
+                                          and is_read = false
+                                    """)
+                            .setParameter("userId", user.getId())
+                            .getSingleResult()).longValue()
+            );
+        });
+    }
+
+    public List<Object[]> getSentEmails(User sender) {
+        return metrics.call("email.list.sent", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session ->
+                    session.createNativeQuery("""
+                                        select e.subject, e.code, GROUP_CONCAT(DISTINCT r.email SEPARATOR ', ') as recipients
+                                        from emails e
+                                        join email_recipients er on er.email_id = e.id
+                                        join users r on er.recipient_id = r.id
+                                        where e.sender_id = :senderId
+                                        group by e.id
+                                        order by e.sent_at DESC
+                                    """)
+                            .setParameter("senderId", sender.getId())
+                            .list()
+            );
+        });
+    }
+
+    public Page<MailboxEntry> getReceivedEmailsPage(User user, MailboxCursor cursor, int pageSize) {
+        Page.checkPageSize(pageSize);
+        return metrics.call("email.list.received", () -> {
+            if (MailboxFanout.isReadable()) {
+                return MailboxFanout.getReceivedEmailsPage(user, false, cursor, pageSize);
+            }
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<MailboxEntry> rows = toMailboxEntries(bindCursor(session.createNativeQuery("""
+                                        select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read
+                                        from emails e
+                                        join email_recipients er on er.email_id = e.id
+                                        join users s on s.id = e.sender_id
+                                        where er.recipient_id = :userId
+                                        """ + keysetPredicate(cursor) + """
+                                        order by e.sent_at DESC, e.id DESC
+                                    """, Object[].class), cursor)
                         .setParameter("userId", user.getId())
-                        .getResultList()
-        );
+                        .setMaxResults(pageSize + 1)
+                        .getResultList());
+
+                return Page.of(rows, pageSize, EmailService::cursorOf);
+            });
+        });
     }
 
-    public List<Email> getUnreadEmails(User user) {
-        return SingletonSessionFactory.get().fromTransaction(session ->
-                session.createNativeQuery("""
-                                    select e.*
-                                    from emails e
-                                    join email_recipients er on e.id = er.email_id
-                                    where er.recipient_id = :userId
-                                      and er.is_read = false
-                                    order by e.sent_at DESC
-                                """, Email.class)
+    public Page<MailboxEntry> getUnreadEmailsPage(User user, MailboxCursor cursor, int pageSize) {
+        Page.checkPageSize(pageSize);
+        return metrics.call("email.list.unread", () -> {
+            if (MailboxFanout.isReadable()) {
+                return MailboxFanout.getReceivedEmailsPage(user, true, cursor, pageSize);
+            }
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<MailboxEntry> rows = toMailboxEntries(bindCursor(session.createNativeQuery("""
+                                        select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read
+                                        from emails e
+                                        join email_recipients er on e.id = er.email_id
+                                        join users s on s.id = e.sender_id
+                                        where er.recipient_id = :userId
+                                          and er.is_read = false
+                                        """ + keysetPredicate(cursor) + """
+                                        order by e.sent_at DESC, e.id DESC
+                                    """, Object[].class), cursor)
                         .setParameter("userId", user.getId())
-                        .getResultList()
-        );
+                        .setMaxResults(pageSize + 1)
+                        .getResultList());
+
+                return Page.of(rows, pageSize, EmailService::cursorOf);
+            });
+        });
     }
 
-    public List<Object[]> getSentEmails(User sender) {
-        return SingletonSessionFactory.get().fromTransaction(session ->
-                session.createNativeQuery("""
-                                    select e.subject, e.code, GROUP_CONCAT(DISTINCT r.email SEPARATOR ', ') as recipients
-                                    from emails e
-                                    join email_recipients er on er.email_id = e.id
-                                    join users r on er.recipient_id = r.id
-                                    where e.sender_id = :senderId
-                                    group by e.id
-                                    order by e.sent_at DESC
-                                """)
+    // Rows are {subject, code, recipients, sent_at, id}.
+    public Page<Object[]> getSentEmailsPage(User sender, MailboxCursor cursor, int pageSize) {
+        Page.checkPageSize(pageSize);
+        return metrics.call("email.list.sent", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Object[]> rows = bindCursor(session.createNativeQuery("""
+                                        select e.subject, e.code, GROUP_CONCAT(DISTINCT r.email SEPARATOR ', ') as recipients,
+                                               e.sent_at, e.id
+                                        from emails e
+                                        join email_recipients er on er.email_id = e.id
+                                        join users r on er.recipient_id = r.id
+                                        where e.sender_id = :senderId
+                                        """ + keysetPredicate(cursor) + """
+                                        group by e.id
+                                        order by e.sent_at DESC, e.id DESC
+                                    """, Object[].class), cursor)
                         .setParameter("senderId", sender.getId())
-                        .list()
-        );
+                        .setMaxResults(pageSize + 1)
+                        .getResultList();
+
+                return Page.of(rows, pageSize, row ->
+                        new MailboxCursor(toLocalDateTime(row[3]), ((Number) row[4]).longValue()));
+            });
+        });
     }
 
-    public void readEmailByCode(User user, String code) {
-        SingletonSessionFactory.get().inTransaction(session -> {
-            Email email = session.createNativeQuery("""
-                                select e.*
-                                from emails e
-                                where e.code = :code
-                            """, Email.class)
-                    .setParameter("code", code)
-                    .uniqueResult();
-
-            if (email == null) {
-                System.err.println("No email found with this code.");
-                return;
-            }
+    // The whole conversation containing code, oldest first, limited to messages the user sent or received.
+    // Retention archives a thread's old messages while newer ones stay live, so the code is looked up in
+    // both tables and the thread is read from both. In each, the thread is the root (PRIMARY) plus its
+    // members (idx_emails_thread), each in its own union branch; an "or" over both would scan on most planners.
+    public List<MailboxEntry> getThread(User user, String code) {
+        return metrics.call("email.thread", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Long> threadIds = session.createNativeQuery("""
+                                    select coalesce(t.thread_id, t.id) from emails t where t.code = :code
+                                    union all
+                                    select coalesce(t.thread_id, t.id) from emails_archive t where t.code = :code
+                                """, Long.class)
+                        .setParameter("code", code)
+                        .getResultList();
+                if (threadIds.isEmpty()) {
+                    return List.of();
+                }
+                return toMailboxEntries(session.createNativeQuery(
+                                threadMessages(false) + "union all\n" + threadMessages(true) + "order by sent_at, id\n",
+                                Object[].class)
+                        .setParameter("threadId", threadIds.get(0))
+                        .setParameter("userId", user.getId())
+                        .getResultList());
+            });
+        });
+    }
 
-            boolean isSender = email.getSender().getId().equals(user.getId());
+    private static String threadMessages(boolean archived) {
+        return """
+                select e.id as id, e.code, e.subject, s.email, e.sent_at as sent_at, coalesce(er.is_read, true)
+                from (
+                    select id from %1$s where id = :threadId
+                    union all
+                    select id from %1$s where thread_id = :threadId
+                ) thread
+                join %1$s e on e.id = thread.id
+                join users s on s.id = e.sender_id
+                left join %2$s er on er.email_id = e.id and er.recipient_id = :userId
+                where e.sender_id = :userId or er.id is not null
+                """.formatted(archived ? "emails_archive" : "emails", recipientsTable(archived));
+    }
 
-            boolean isRecipient = session.createNativeQuery("""
-                                select 1
-                                from email_recipients
-                                where email_id = :emailId
-                                  and recipient_id = :userId
+    // Received mail collapsed to one row per thread, ordered by the thread's latest received message.
+    // Reads the per-recipient thread_summaries rows, which deliveries and reads keep current, so a page
+    // costs pageSize rows however long the threads or the mailbox are. Archived mail is included.
+    public Page<ThreadSummary> getReceivedThreadsPage(User user, MailboxCursor cursor, int pageSize) {
+        Page.checkPageSize(pageSize);
+        return metrics.call("email.list.threads", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Object[]> rows = bindCursor(session.createNativeQuery("""
+                                        select t.thread_id, t.latest_email_id, t.code, t.subject, t.sender_email,
+                                               t.latest_sent_at, t.message_count, t.unread_count
+                                        from thread_summaries t
+                                        where t.owner_id = :userId
+                                        """ + (cursor == null ? "" :
+                                        "and (t.latest_sent_at < :cursorSentAt or (t.latest_sent_at = :cursorSentAt and t.latest_email_id < :cursorId))\n") + """
+                                        order by t.latest_sent_at DESC, t.latest_email_id DESC
+                                    """, Object[].class), cursor)
+                        .setParameter("userId", user.getId())
+                        .setMaxResults(pageSize + 1)
+                        .getResultList();
+
+                List<ThreadSummary> threads = new ArrayList<>(rows.size());
+                for (Object[] row : rows) {
+                    threads.add(new ThreadSummary(
+                            ((Number) row[0]).longValue(),
+                            ((Number) row[1]).longValue(),
+                            (String) row[2],
+                            (String) row[3],
+                            (String) row[4],
+                            toLocalDateTime(row[5]),
+                            ((Number) row[6]).intValue(),
+                            ((Number) row[7]).intValue()));
+                }
+                return Page.of(threads, pageSize, thread -> new MailboxCursor(thread.lastSentAt(), thread.latestId()));
+            });
+        });
+    }
+
+    // The poll cursor is built on email_recipients.id. Ids are assigned at insert time, not at commit
+    // time, so a transaction that commits late can make a smaller id visible after larger ones were
+    // already polled. Each poll therefore re-scans everything above the settled id and skips the ids
+    // in PollCursor.recent; a row only becomes settled once its sent_at is older than the poll window.
+    // Guarantee: every delivery whose transaction commits within the window of its sent_at (application
+    // clock) is returned exactly once; a transaction open longer than that may be missed.
+    // Start from currentMailCursor().
+    public PollCursor currentMailCursor(User user) {
+        return SingletonSessionFactory.get().fromTransaction(session -> {
+            Number settled = (Number) session.createNativeQuery("""
+                                select max(er.id)
+                                from email_recipients er
+                                join emails e on e.id = er.email_id
+                                where er.recipient_id = :userId
+                                  and e.sent_at < :settledBefore
                             """)
-                    .setParameter("emailId", email.getId())
                     .setParameter("userId", user.getId())
-                    .uniqueResult() != null;
+                    .setParameter("settledBefore", pollSettledBefore())
+                    .getSingleResult();
+            long floor = settled == null ? 0L : settled.longValue();
+            List<Long> recent = session.createNativeQuery("""
+                                select id
+                                from email_recipients
+                                where recipient_id = :userId
+                                  and id > :floor
+                                order by id
+                            """, Long.class)
+                    .setParameter("userId", user.getId())
+                    .setParameter("floor", floor)
+                    .getResultList();
+            return new PollCursor(floor, List.copyOf(recent));
+        });
+    }
+
+    // Returns mail delivered since the cursor, oldest first, at most POLL_LIMIT entries per call,
+    // plus the cursor to pass next time. Cost depends on how much arrived, not on mailbox size.
+    public PollResult pollNewMail(User user, PollCursor since) {
+        return metrics.call("email.poll", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Object[]> rows = session.createNativeQuery("""
+                                    select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read, er.id
+                                    from email_recipients er
+                                    join emails e on e.id = er.email_id
+                                    join users s on s.id = e.sender_id
+                                    where er.recipient_id = :userId
+                                      and er.id > :settled
+                                    order by er.id
+                                """, Object[].class)
+                        .setParameter("userId", user.getId())
+                        .setParameter("settled", since.settled())
+                        .setMaxResults(POLL_LIMIT + since.recent().size())
+                        .getResultList();
+
+                Set<Long> delivered = new HashSet<>(since.recent());
+                List<Object[]> fresh = new ArrayList<>();
+                List<Object[]> scanned = new ArrayList<>();
+                for (Object[] row : rows) {
+                    if (fresh.size() == POLL_LIMIT) {
+                        break;
+                    }
+                    scanned.add(row);
+                    if (!delivered.contains(((Number) row[6]).longValue())) {
+                        fresh.add(row);
+                    }
+                }
+                return new PollResult(toMailboxEntries(fresh), advance(since, scanned));
+            });
+        });
+    }
 
-            if (!isSender && !isRecipient) {
-                System.err.println("You cannot read this email.");
-                return;
+    // Moves the settled id over the leading scanned rows that are past the poll window; the scanned
+    // ids above it stay in recent.
+    private static PollCursor advance(PollCursor since, List<Object[]> scanned) {
+        LocalDateTime settledBefore = pollSettledBefore();
+        long settled = since.settled();
+        int i = 0;
+        while (i < scanned.size() && toLocalDateTime(scanned.get(i)[4]).isBefore(settledBefore)) {
+            settled = ((Number) scanned.get(i)[6]).longValue();
+            i++;
+        }
+        List<Long> recent = new ArrayList<>();
+        for (; i < scanned.size(); i++) {
+            recent.add(((Number) scanned.get(i)[6]).longValue());
+        }
+        long lastScanned = scanned.isEmpty() ? since.settled() : ((Number) scanned.get(scanned.size() - 1)[6]).longValue();
+        // A poll that stopped at POLL_LIMIT has not reached the rest of the previous recent ids yet.
+        for (long id : since.recent()) {
+            if (id > lastScanned) {
+                recent.add(id);
             }
+        }
+        return new PollCursor(settled, List.copyOf(recent));
+    }
 
+    private static LocalDateTime pollSettledBefore() {
+        return LocalDateTime.now().minusSeconds(POLL_WINDOW_SECONDS);
+    }
 
-            System.out.println("Code: " + email.getCode());
+    private static String keysetPredicate(MailboxCursor cursor) {
+        if (cursor == null) {
+            return "";
+        }
+        return "and (e.sent_at < :cursorSentAt or (e.sent_at = :cursorSentAt and e.id < :cursorId))\n";
+    }
 
-            List<String> recipientEmails = session.createNativeQuery("""
-                                select u.email
-                                from users u
-                                join email_recipients er on er.recipient_id = u.id
-                                where er.email_id = :emailId
-                            """)
-                    .setParameter("emailId", email.getId())
-                    .getResultList();
+    static <T> NativeQuery<T> bindCursor(NativeQuery<T> query, MailboxCursor cursor) {
+        if (cursor != null) {
+            query.setParameter("cursorSentAt", cursor.sentAt())
+                    .setParameter("cursorId", cursor.id());
+        }
+        return query;
+    }
+
+    private static List<Long> idsOf(Collection<User> users) {
+        List<Long> ids = new ArrayList<>(users.size());
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+
+    public MailboxEventBus getEventBus() {
+        return eventBus;
+    }
+
+    private static MailboxCursor cursorOf(MailboxEntry entry) {
+        return new MailboxCursor(entry.sentAt(), entry.id());
+    }
 
-            System.out.println("Recipient(s): " + String.join(", ", recipientEmails));
-            System.out.println("Subject: " + email.getSubject());
-            System.out.println("Date: " + email.getSentAt().toLocalDate());
-            System.out.println();
-            System.out.println(email.getBody());
+    // Rows are {id, code, subject, sender email, sent_at, is_read}.
+    static List<MailboxEntry> toMailboxEntries(List<Object[]> rows) {
+        List<MailboxEntry> entries = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            entries.add(new MailboxEntry(
+                    ((Number) row[0]).longValue(),
+                    (String) row[1],
+                    (String) row[2],
+                    (String) row[3],
+                    toLocalDateTime(row[4]),
+                    toBoolean(row[5])));
+        }
+        return entries;
+    }
 
-            if (isRecipient) {
-                session.createNativeQuery("""
+    static boolean toBoolean(Object value) {
+        if (value instanceof Number number) {
+            return number.intValue() != 0;
+        }
+        return Boolean.TRUE.equals(value);
+    }
+
+    static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime();
+        }
+        return (LocalDateTime) value;
+    }
+
+    // Full-text search over subject, body and sender address, limited to mail the user received.
+    // Hits come from the Lucene index; one query then loads their listing rows in relevance order.
+    public List<MailboxEntry> search(User user, String query, int limit) {
+        return metrics.call("email.search", () -> {
+            if (query == null || query.isBlank()) {
+                return List.of();
+            }
+
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Long> ids = Search.session(session)
+                        .search(Email.class)
+                        .select(f -> f.id(Long.class))
+                        .where(f -> f.bool()
+                                .must(f.simpleQueryString()
+                                        .fields("subject", "body.text", "sender.email")
+                                        .matching(query)
+                                        .defaultOperator(BooleanOperator.AND))
+                                .filter(f.match().field("recipients.id").matching(user.getId())))
+                        .fetchHits(limit);
+
+                if (ids.isEmpty()) {
+                    return List.of();
+                }
+
+                List<MailboxEntry> rows = toMailboxEntries(session.createNativeQuery("""
+                                    select e.id, e.code, e.subject, s.email, e.sent_at, er.is_read
+                                    from emails e
+                                    join email_recipients er on er.email_id = e.id
+                                    join users s on s.id = e.sender_id
+                                    where er.recipient_id = :userId
+                                      and e.id in (:ids)
+                                """, Object[].class)
+                        .setParameter("userId", user.getId())
+                        .setParameter("ids", ids)
+                        .getResultList());
+
+                Map<Long, MailboxEntry> byId = new HashMap<>();
+                for (MailboxEntry row : rows) {
+                    byId.put(row.id(), row);
+                }
+                List<MailboxEntry> ranked = new ArrayList<>(rows.size());
+                for (Long id : ids) {
+                    MailboxEntry row = byId.get(id);
+                    if (row != null) {
+                        ranked.add(row);
+                    }
+                }
+                return ranked;
+            });
+        });
+    }
+
+    // Indexes emails that existed before search was enabled; new emails are indexed as they are persisted.
+    public void rebuildSearchIndex() throws InterruptedException {
+        try (Session session = SingletonSessionFactory.get().openSession()) {
+            Search.session(session)
+                    .massIndexer(Email.class)
+                    .startAndWait();
+        }
+    }
+
+    public void readEmailByCode(User user, String code) {
+        metrics.call("email.read", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                EmailAccess email = loadEmailAccess(session, code, user.getId());
+
+                if (email == null) {
+                    System.err.println("No email found with this code.");
+                    return false;
+                }
+
+                if (!email.isSender() && !email.isRecipient()) {
+                    System.err.println("You cannot read this email.");
+                    return false;
+                }
+
+
+                System.out.println("Code: " + email.code());
+                System.out.println("Recipient(s): " + String.join(", ", email.recipientEmails()));
+                System.out.println("Subject: " + email.subject());
+                System.out.println("Date: " + email.sentAt().toLocalDate());
+                System.out.println();
+                System.out.println(session.get(EmailBody.class, email.bodyId()).getText());
+
+                if (email.isRecipient() && !email.read()) {
+                    String recipientsTable = recipientsTable(email.archived());
+                    // "is_read = false" makes the count exact when the same user reads the email twice at once.
+                    int updated = session.createNativeQuery("""
+                                        update %s
+                                        set is_read = true, read_at = :readAt
+                                        where email_id = :emailId
+                                          and recipient_id = :userId
+                                          and is_read = false
+                                    """.formatted(recipientsTable))
+                            .addSynchronizedQuerySpace(recipientsTable)
+                            .setParameter("readAt", LocalDateTime.now())
+                            .setParameter("emailId", email.id())
+                            .setParameter("userId", user.getId())
+                            .executeUpdate();
+                    if (updated > 0) {
+                        ThreadSummaryStore.markRead(session, user.getId(), List.of(email.threadKey()));
+                    }
+                    if (!email.archived()) {
+                        MailboxFanout.markRead(session, email.id(), user.getId());
+                    }
+                }
+                return true;
+            });
+        }, done -> !done);
+    }
+
+    // Marks the user's unread copies of the given emails as read; returns the number of rows changed.
+    public int markRead(User user, Collection<String> codes) {
+        return metrics.call("email.mark.read", () -> {
+            List<String> distinctCodes = new ArrayList<>(new LinkedHashSet<>(codes));
+            if (distinctCodes.isEmpty()) {
+                return 0;
+            }
+            LocalDateTime readAt = LocalDateTime.now();
+
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                int updated = 0;
+                for (int from = 0; from < distinctCodes.size(); from += IN_CLAUSE_CHUNK_SIZE) {
+                    List<String> chunk = distinctCodes.subList(from,
+                            Math.min(from + IN_CLAUSE_CHUNK_SIZE, distinctCodes.size()));
+
+                    // Locks the rows this chunk switches to read, one thread id per row, for the thread counts.
+                    List<Long> readThreads = session.createNativeQuery("""
+                                        select coalesce(e.thread_id, e.id)
+                                        from emails e
+                                        join email_recipients er on er.email_id = e.id
+                                        where e.code in (:codes)
+                                          and er.recipient_id = :userId
+                                          and er.is_read = false
+                                        for update
+                                    """, Long.class)
+                            .setParameter("codes", chunk)
+                            .setParameter("userId", user.getId())
+                            .getResultList();
+                    if (readThreads.isEmpty()) {
+                        continue;
+                    }
+
+                    updated += session.createNativeQuery("""
+                                        update email_recipients
+                                        set is_read = true, read_at = :readAt
+                                        where recipient_id = :userId
+                                          and is_read = false
+                                          and email_id in (select e.id from emails e where e.code in (:codes))
+                                    """)
+                            .addSynchronizedQuerySpace("email_recipients")
+                            .setParameter("readAt", readAt)
+                            .setParameter("userId", user.getId())
+                            .setParameter("codes", chunk)
+                            .executeUpdate();
+                    ThreadSummaryStore.markRead(session, user.getId(), readThreads);
+                    MailboxFanout.markRead(session, user.getId(), chunk);
+                }
+                return updated;
+            });
+        });
+    }
+
+    // Marks everything the user received up to and including upTo as read; returns the number of rows changed.
+    public int markAllRead(User user, Instant upTo) {
+        return metrics.call("email.mark.read.all", () -> {
+            LocalDateTime sentBefore = LocalDateTime.ofInstant(upTo, ZoneId.systemDefault());
+            LocalDateTime readAt = LocalDateTime.now();
+
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                // Locks the rows about to be switched to read, one thread id per row, for the thread counts.
+                List<Long> readThreads = session.createNativeQuery("""
+                                    select coalesce(e.thread_id, e.id)
+                                    from email_recipients er
+                                    join emails e on e.id = er.email_id
+                                    where er.recipient_id = :userId
+                                      and er.is_read = false
+                                      and e.sent_at <= :upTo
+                                    for update
+                                """, Long.class)
+                        .setParameter("userId", user.getId())
+                        .setParameter("upTo", sentBefore)
+                        .getResultList();
+                if (readThreads.isEmpty()) {
+                    return 0;
+                }
+
+                int updated = session.createNativeQuery("""
                                     update email_recipients
-                                    set is_read = true
-                                    where email_id = :emailId
-                                      and recipient_id = :userId
+                                    set is_read = true, read_at = :readAt
+                                    where recipient_id = :userId
+                                      and is_read = false
+                                      and exists (select 1
+                                                  from emails e
+                                                  where e.id = email_recipients.email_id
+                                                    and e.sent_at <= :upTo)
                                 """)
-                        .setParameter("emailId", email.getId())
+                        .addSynchronizedQuerySpace("email_recipients")
+                        .setParameter("readAt", readAt)
                         .setParameter("userId", user.getId())
+                        .setParameter("upTo", sentBefore)
                         .executeUpdate();
-            }
+                ThreadSummaryStore.markRead(session, user.getId(), readThreads);
+                MailboxFanout.markAllRead(session, user.getId(), sentBefore);
+                return updated;
+            });
         });
     }
 
 
     public void replyToEmail(User replier, String originalCode, String replyBody) {
-        SingletonSessionFactory.get().inTransaction(session -> {
-
-            Email originalEmail = session.createNativeQuery(
-                            "select * from emails where code = :code", Email.class)
-                    .setParameter("code", originalCode)
-                    .uniqueResult();
+        metrics.call("email.reply", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
 
-            if (originalEmail == null) {
-                System.err.println("Email not found.\n");
-                return;
-            }
-
-            Long userId = replier.getId();
-            Long emailId = originalEmail.getId();
+                Long userId = replier.getId();
+                EmailAccess originalEmail = loadEmailAccess(session, originalCode, userId);
 
-            boolean isSender = session.createNativeQuery(""" 
-                            select 1 from emails where id = :emailId AND sender_id = :userId
-                            """)
-                    .setParameter("emailId", emailId)
-                    .setParameter("userId", userId)
-                    .uniqueResult() != null;
+                if (originalEmail == null) {
+                    System.err.println("Email not found.\n");
+                    return false;
+                }
 
-            boolean isRecipient = session.createNativeQuery("""
-                                     select 1 from email_recipients where email_id = :emailId AND recipient_id = :userId
-                                    """)
-                            .setParameter("emailId", emailId)
-                            .setParameter("userId", userId)
-                            .uniqueResult() != null;
+                if (!originalEmail.isSender() && !originalEmail.isRecipient()) {
+                    System.err.println("You cannot reply to this email.\n");
+                    return false;
+                }
 
-            if (!isSender && !isRecipient) {
-                System.err.println("You cannot reply to this email.\n");
-                return;
-            }
 
+                Map<Long, String> replyTo = new LinkedHashMap<>();
+                if (originalEmail.senderId() != userId) {
+                    replyTo.put(originalEmail.senderId(), originalEmail.senderEmail());
+                }
+                for (Recipient r : originalEmail.recipients()) {
+                    if (r.id() != userId) {
+                        replyTo.putIfAbsent(r.id(), r.email());
+                    }
+                }
 
-            List<User> originalRecipients = session.createNativeQuery(
-                            """
-                                    select u.* from users u join email_recipients er on u.id = er.recipient_id 
-                                    where er.email_id = :emailId""",
-                            User.class)
-                    .setParameter("emailId", emailId)
-                    .getResultList();
+                if (replyTo.isEmpty()) {
+                    System.out.println("No one to reply to.");
+                    return false;
+                }
 
-            List<User> recipients = new ArrayList<>();
-            if (!originalEmail.getSender().getId().equals(userId)) {
-                recipients.add(originalEmail.getSender());
-            }
-            for (User u : originalRecipients) {
-                if (!u.getId().equals(userId) &&
-                        recipients.stream().noneMatch(r -> r.getId().equals(u.getId()))) {
-                    recipients.add(u);
+                List<User> recipients = new ArrayList<>();
+                for (Long recipientId : replyTo.keySet()) {
+                    recipients.add(session.getReference(User.class, recipientId));
                 }
-            }
 
-            if (recipients.isEmpty()) {
-                System.out.println("No one to reply to.");
-                return;
-            }
+                String replySubject = "[Re] " + originalEmail.subject();
 
-            String replySubject = "[Re] " + originalEmail.getSubject();
+                String newCode = codeGenerator.nextCode();
 
-            String newCode;
-            do {
-                newCode = generateUniqueCode(session);
-            } while (session.createNativeQuery(
-                            "select 1 from emails where code = :code")
-                    .setParameter("code", newCode)
-                    .uniqueResult() != null);
+                Email replyEmail = new Email(replySubject, EmailBodyStore.store(session, replyBody), replier, recipients, newCode);
+                replyEmail.continueThread(originalEmail.id(), originalEmail.threadId());
+                session.persist(replyEmail);
+                MailboxFanout.write(session, List.of(replyEmail.getId()));
+                ThreadSummaryStore.write(session, List.of(replyEmail.getId()));
+                eventBus.publishAfterCommit(session, MailboxEvent.deliveries(replyEmail, replier.getEmail(), replyTo.keySet()));
 
-            Email replyEmail = new Email(replySubject, replyBody, replier, recipients, newCode);
-            session.persist(replyEmail);
 
+                System.out.println("Code: " + newCode);
+                System.out.print("Recipient(s): ");
+                System.out.println(String.join(", ", replyTo.values()));
+                System.out.println("Subject: " + replySubject);
+                System.out.println("Date: " + LocalDate.now());
+                System.out.println();
+                System.out.println(replyBody);
 
-            System.out.println("Code: " + newCode);
-            System.out.print("Recipient(s): ");
-            List<String> emails = new ArrayList<>();
-            for (User u : recipients) {
-                emails.add(u.getEmail());
-            }
-            System.out.println(String.join(", ", emails));
-            System.out.println("Subject: " + replySubject);
-            System.out.println("Date: " + LocalDate.now());
-            System.out.println();
-            System.out.println(replyBody);
-
-            System.out.println("Successfully sent your reply to email " + originalCode + ".");
-            System.out.println("Code: " + newCode);
-        });
+                System.out.println("Successfully sent your reply to email " + originalCode + ".");
+                System.out.println("Code: " + newCode);
+                return true;
+            });
+        }, done -> !done);
     }
 
 
     public void forwardEmail(User forwarder, String originalCode, List<String> recipientEmails) {
-        SingletonSessionFactory.get().inTransaction(session -> {
-            Email originalEmail = session.createNativeQuery(
-                            "select * from emails where code = :code", Email.class)
-                    .setParameter("code", originalCode)
-                    .uniqueResult();
-
-            if (originalEmail == null) {
-                System.err.println("Original email not found.\n");
-                return;
-            }
+        metrics.call("email.forward", () -> {
+            return SingletonSessionFactory.get().fromTransaction(session -> {
+                EmailAccess originalEmail = loadEmailAccess(session, originalCode, forwarder.getId());
 
-            Long forwarderUserId = forwarder.getId();
-            Long originalEmailId = originalEmail.getId();
+                if (originalEmail == null) {
+                    System.err.println("Original email not found.\n");
+                    return false;
+                }
 
-            for (int i = 0; i < recipientEmails.size(); i++) {
-                recipientEmails.set(i, normalizeEmail(recipientEmails.get(i)));
-            }
+                if (!originalEmail.isSender() && !originalEmail.isRecipient()) {
+                    System.out.println("You cannot forward this email.\n");
+                    return false;
+                }
 
-            boolean allowed = session.createNativeQuery("""
-                                select 1 from emails e
-                                where e.id = :emailId and (e.sender_id = :userId or exists (
-                                    select 1 from email_recipients r
-                                    where r.email_id = e.id and r.recipient_id = :userId
-                                ))
-                            """)
-                    .setParameter("emailId", originalEmailId)
-                    .setParameter("userId", forwarderUserId)
-                    .uniqueResult() != null;
+                List<User> newRecipients = resolveRecipients(session, recipientEmails);
 
-            if (!allowed) {
-                System.out.println("You cannot forward this email.\n");
-                return;
-            }
+                if (newRecipients.isEmpty()) {
+                    System.err.println("No valid recipients found.");
+                    return false;
+                }
 
-            List<User> newRecipients = session.createNativeQuery(
-                            "select * from users WHERE email in (:emails)", User.class)
-                    .setParameter("emails", recipientEmails)
-                    .getResultList();
+                String subject = "[Fw] " + originalEmail.subject();
+                EmailBody originalBody = session.get(EmailBody.class, originalEmail.bodyId());
+                String body = originalBody.getText();
 
-            if (newRecipients.isEmpty()) {
-                System.err.println("No valid recipients found.");
-                return;
-            }
+                String code = codeGenerator.nextCode();
 
-            String subject = "[Fw] " + originalEmail.getSubject();
-            String body = originalEmail.getBody();
+                Email forwarded = new Email(subject, originalBody, forwarder, newRecipients, code);
+                forwarded.continueThread(originalEmail.id(), originalEmail.threadId());
+                session.persist(forwarded);
+                MailboxFanout.write(session, List.of(forwarded.getId()));
+                ThreadSummaryStore.write(session, List.of(forwarded.getId()));
+                eventBus.publishAfterCommit(session, MailboxEvent.deliveries(forwarded, forwarder.getEmail(), idsOf(newRecipients)));
 
-            String code;
-            do {
-                code = generateUniqueCode(session);
-            } while (session.createNativeQuery("select 1 from emails WHERE code = :code")
-                    .setParameter("code", code)
-                    .uniqueResult() != null);
+                System.out.println("Code: " + code);
+                List<String> emails = new ArrayList<>();
+                for (User u : newRecipients) {
+                    emails.add(u.getEmail());
+                }
+                System.out.println("Recipient(s): " + String.join(", ", emails));
+                System.out.println("Subject: " + subject);
+                System.out.println("Date: " + forwarded.getSentAt().toLocalDate());
+                System.out.println();
+                System.out.println(body);
+                System.out.println();
+
+                System.out.println("Successfully forwarded your email.");
+                System.out.println("Code: " + code);
+                return true;
+            });
+        }, done -> !done);
+    }
 
-            Email forwarded = new Email(subject, body, forwarder, newRecipients, code);
-            session.persist(forwarded);
 
-            System.out.println("Code: " + code);
-            List<String> emails = new ArrayList<>();
-            for (User u : newRecipients) {
-                emails.add(u.getEmail());
-            }
-            System.out.println("Recipient(s): " + String.join(", ", emails));
-            System.out.println("Subject: " + subject);
-            System.out.println("Date: " + forwarded.getSentAt().toLocalDate());
-            System.out.println();
-            System.out.println(body);
-            System.out.println();
-
-            System.out.println("Successfully forwarded your email.");
-            System.out.println("Code: " + code);
-        });
+    private record Recipient(long id, String email, boolean read) {
     }
 
+    private record EmailAccess(long id, String code, String subject, long bodyId, LocalDateTime sentAt,
+                               Long threadId, long senderId, String senderEmail, List<Recipient> recipients,
+                               boolean isSender, boolean isRecipient, boolean read, boolean archived) {
 
-    public String generateUniqueCode(Session session) {
-        String code;
-        boolean exists;
+        long threadKey() {
+            return threadId != null ? threadId : id;
+        }
 
-        do {
-            code = generateRandomCode();
-            exists = session.createQuery("select 1 from Email e where e.code = :code")
-                    .setParameter("code", code)
-                    .uniqueResult() != null;
-        } while (exists);
+        List<String> recipientEmails() {
+            List<String> emails = new ArrayList<>(recipients.size());
+            for (Recipient recipient : recipients) {
+                emails.add(recipient.email());
+            }
+            return emails;
+        }
+    }
 
-        return code;
+    // Loads the email, its sender and recipients and the caller's role in one round trip.
+    // The body is left out; callers that need it load the cached, shared EmailBody by id.
+    // Retention moves old mail to the archive tables, so a code missing from the live tables is looked up there.
+    private EmailAccess loadEmailAccess(Session session, String code, long userId) {
+        EmailAccess live = loadEmailAccess(session, code, userId, false);
+        return live != null ? live : loadEmailAccess(session, code, userId, true);
     }
 
-    private String generateRandomCode() {
-        String chars = "abcdefghijklmnopqrstuvwxyz0123456789";
-        StringBuilder builder = new StringBuilder();
-        Random random = new Random();
-        for (int i = 0; i < 6; i++) {
-            builder.append(chars.charAt(random.nextInt(chars.length())));
+    private EmailAccess loadEmailAccess(Session session, String code, long userId, boolean archived) {
+        List<Object[]> rows = session.createNativeQuery("""
+                            select e.id, e.code, e.subject, e.body_id, e.sent_at, e.sender_id, s.email,
+                                   er.recipient_id, r.email, er.is_read, e.thread_id
+                            from %s e
+                            join users s on s.id = e.sender_id
+                            left join %s er on er.email_id = e.id
+                            left join users r on r.id = er.recipient_id
+                            where e.code = :code
+                        """.formatted(archived ? "emails_archive" : "emails", recipientsTable(archived)), Object[].class)
+                .setParameter("code", code)
+                .getResultList();
+
+        if (rows.isEmpty()) {
+            return null;
         }
-        return builder.toString();
+
+        Object[] first = rows.get(0);
+        long senderId = ((Number) first[5]).longValue();
+        List<Recipient> recipients = new ArrayList<>();
+        boolean isRecipient = false;
+        boolean read = false;
+        for (Object[] row : rows) {
+            if (row[7] == null) {
+                continue;
+            }
+            Recipient recipient = new Recipient(((Number) row[7]).longValue(), (String) row[8], toBoolean(row[9]));
+            recipients.add(recipient);
+            if (recipient.id() == userId) {
+                isRecipient = true;
+                read = recipient.read();
+            }
+        }
+
+        return new EmailAccess(((Number) first[0]).longValue(), (String) first[1], (String) first[2],
+                ((Number) first[3]).longValue(), toLocalDateTime(first[4]),
+                first[10] == null ? null : ((Number) first[10]).longValue(), senderId, (String) first[6], recipients,
+                senderId == userId, isRecipient, read, archived);
     }
 
+    static String recipientsTable(boolean archived) {
+        return archived ? "email_recipients_archive" : "email_recipients";
+    }
 
-    public static void printEmailList(List<Email> emails) {
-        for (Email email : emails) {
-            String senderEmail = email.getSender().getEmail();
-            String subject = email.getSubject();
-            String code = email.getCode();
+    public static void printEmailList(List<MailboxEntry> emails) {
+        for (MailboxEntry email : emails) {
+            String senderEmail = email.senderEmail();
+            String subject = email.subject();
+            String code = email.code();
             System.out.println("+ " + senderEmail + " - " + subject + " (" + code + ")");
         }
 
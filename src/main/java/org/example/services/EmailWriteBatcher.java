@@ -0,0 +1,203 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.Email;
+import org.example.model.EmailBody;
+import org.example.model.MailboxEvent;
+import org.example.model.User;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Group commit for email inserts: writes submitted by many callers are collected for up to
+// maxDelayMillis or maxBatchSize entries and committed in one transaction, where Hibernate
+// batches the emails and email_recipients inserts. If the shared transaction fails, each write
+// is retried on its own so one bad write does not fail its neighbours. The shared batcher is flushed
+// by SingletonSessionFactory.close(), so writes accepted before exit are committed.
+public class EmailWriteBatcher {
+
+    private static final String MAX_BATCH_PROPERTY = "milou.batcher.maxBatch";
+    private static final String MAX_DELAY_PROPERTY = "milou.batcher.maxDelayMs";
+
+    private static class Holder {
+        private static final EmailWriteBatcher SHARED = new EmailWriteBatcher(
+                Integer.getInteger(MAX_BATCH_PROPERTY, 100),
+                Integer.getInteger(MAX_DELAY_PROPERTY, 5));
+
+        static {
+            SingletonSessionFactory.onClose(SHARED::shutdown);
+        }
+    }
+
+    // Either body or bodyId is set; bodyId reuses an already stored body (forwards).
+    // parentId and parentThreadId are set for replies and forwards.
+    public record EmailWrite(long senderId, String senderEmail, Collection<Long> recipientIds, String subject,
+                             String body, Long bodyId, String code, Long parentId, Long parentThreadId) {
+    }
+
+    private record Pending(EmailWrite write, CompletableFuture<Long> result) {
+    }
+
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    // Guards the running check and the enqueue in submit against shutdown, so the worker cannot stop
+    // between them and leave a write that nobody completes.
+    private final Object submitLock = new Object();
+    private volatile boolean running = true;
+
+    public EmailWriteBatcher(int maxBatchSize, long maxDelayMillis) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.worker = new Thread(this::run, "email-write-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public static EmailWriteBatcher shared() {
+        return Holder.SHARED;
+    }
+
+    // Completes with the id of the persisted email, or exceptionally if this write failed.
+    public CompletableFuture<Long> submit(EmailWrite write) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        synchronized (submitLock) {
+            if (!running) {
+                result.completeExceptionally(new IllegalStateException("Email write batcher is shut down."));
+                return result;
+            }
+            queue.add(new Pending(write, result));
+        }
+        return result;
+    }
+
+    // Stops accepting writes and waits until every write already accepted is committed or failed.
+    public void shutdown() {
+        synchronized (submitLock) {
+            running = false;
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            drain();
+        } finally {
+            // Only reached with writes left if the worker died; fail them rather than leave callers waiting.
+            Pending left;
+            while ((left = queue.poll()) != null) {
+                left.result().completeExceptionally(new IllegalStateException("Email write batcher stopped."));
+            }
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> batch) {
+        try {
+            List<Email> emails = SingletonSessionFactory.get().fromTransaction(session -> {
+                List<Email> persisted = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    Email email = toEmail(session, pending.write());
+                    session.persist(email);
+                    persisted.add(email);
+                }
+                List<Long> ids = new ArrayList<>(persisted.size());
+                List<MailboxEvent> events = new ArrayList<>();
+                for (int i = 0; i < persisted.size(); i++) {
+                    Email email = persisted.get(i);
+                    EmailWrite write = batch.get(i).write();
+                    ids.add(email.getId());
+                    events.addAll(MailboxEvent.deliveries(email, write.senderEmail(), write.recipientIds()));
+                }
+                MailboxFanout.write(session, ids);
+                ThreadSummaryStore.write(session, ids);
+                MailboxEventBus.shared().publishAfterCommit(session, events);
+                return persisted;
+            });
+
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(emails.get(i).getId());
+            }
+        } catch (RuntimeException batchFailure) {
+            for (Pending pending : batch) {
+                commitAlone(pending);
+            }
+        }
+    }
+
+    private void commitAlone(Pending pending) {
+        try {
+            Email email = SingletonSessionFactory.get().fromTransaction(session -> {
+                Email single = toEmail(session, pending.write());
+                session.persist(single);
+                MailboxFanout.write(session, List.of(single.getId()));
+                ThreadSummaryStore.write(session, List.of(single.getId()));
+                MailboxEventBus.shared().publishAfterCommit(session, MailboxEvent.deliveries(
+                        single, pending.write().senderEmail(), pending.write().recipientIds()));
+                return single;
+            });
+            pending.result().complete(email.getId());
+        } catch (RuntimeException e) {
+            pending.result().completeExceptionally(e);
+        }
+    }
+
+    private static Email toEmail(Session session, EmailWrite write) {
+        List<User> recipients = new ArrayList<>(write.recipientIds().size());
+        for (Long recipientId : write.recipientIds()) {
+            recipients.add(session.getReference(User.class, recipientId));
+        }
+        User sender = session.getReference(User.class, write.senderId());
+        EmailBody body = write.bodyId() != null
+                ? session.getReference(EmailBody.class, write.bodyId())
+                : EmailBodyStore.store(session, write.body());
+        Email email = new Email(write.subject(), body, sender, recipients, write.code());
+        if (write.parentId() != null) {
+            email.continueThread(write.parentId(), write.parentThreadId());
+        }
+        return email;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+
+// Compares mailbox_entries with the normalized emails/email_recipients tables and rebuilds it from them.
+public class MailboxConsistencyChecker {
+
+    private static final int OWNER_BATCH_SIZE = 500;
+
+    public record Report(long missing, long orphaned, long readMismatches) {
+
+        public boolean isConsistent() {
+            return missing == 0 && orphaned == 0 && readMismatches == 0;
+        }
+    }
+
+    public Report check() {
+        return SingletonSessionFactory.get().fromTransaction(session -> {
+            long missing = ((Number) session.createNativeQuery("""
+                                select count(*)
+                                from email_recipients er
+                                left join mailbox_entries m on m.owner_id = er.recipient_id and m.email_id = er.email_id
+                                where m.id is null
+                            """)
+                    .getSingleResult()).longValue();
+
+            long orphaned = ((Number) session.createNativeQuery("""
+                                select count(*)
+                                from mailbox_entries m
+                                left join email_recipients er on er.recipient_id = m.owner_id and er.email_id = m.email_id
+                                where er.id is null
+                            """)
+                    .getSingleResult()).longValue();
+
+            long readMismatches = ((Number) session.createNativeQuery("""
+                                select count(*)
+                                from mailbox_entries m
+                                join email_recipients er on er.recipient_id = m.owner_id and er.email_id = m.email_id
+                                where m.is_read <> coalesce(er.is_read, false)
+                            """)
+                    .getSingleResult()).longValue();
+
+            return new Report(missing, orphaned, readMismatches);
+        });
+    }
+
+    // Rebuilds owner range by owner range, each in its own short transaction, so no lock is held for long.
+    // Listings ignore mailbox_entries from the start of the rebuild until it has finished.
+    // Live fan-out writes keep inserting meanwhile, so a range is never emptied and refilled: rows without
+    // a delivery are deleted, and every delivery is upserted. A write that commits during the rebuild
+    // either finds its row already there or was seen by neither statement; no row goes missing.
+    public void rebuild() {
+        Number maxOwner = SingletonSessionFactory.get().fromTransaction(session -> {
+            MailboxFanout.markRebuilt(session, false);
+            return (Number) session.createNativeQuery("select max(id) from users").getSingleResult();
+        });
+
+        long lastOwner = maxOwner == null ? -1 : maxOwner.longValue();
+        for (long start = 0; start <= lastOwner; start += OWNER_BATCH_SIZE) {
+            long from = start;
+            long to = start + OWNER_BATCH_SIZE - 1;
+            SingletonSessionFactory.get().inTransaction(session -> {
+                session.createNativeQuery("""
+                                    delete from mailbox_entries
+                                    where owner_id between :from and :to
+                                      and not exists (select 1
+                                                      from email_recipients er
+                                                      where er.email_id = mailbox_entries.email_id
+                                                        and er.recipient_id = mailbox_entries.owner_id)
+                                """)
+                        .addSynchronizedQuerySpace("mailbox_entries")
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .executeUpdate();
+
+                session.createNativeQuery("""
+                                    insert into mailbox_entries (owner_id, email_id, sent_at, code, subject, sender_email, is_read)
+                                    select er.recipient_id, e.id, e.sent_at, e.code, e.subject, s.email, coalesce(er.is_read, false)
+                                    from email_recipients er
+                                    join emails e on e.id = er.email_id
+                                    join users s on s.id = e.sender_id
+                                    where er.recipient_id between :from and :to
+                                    on duplicate key update is_read = values(is_read)
+                                """)
+                        .addSynchronizedQuerySpace("mailbox_entries")
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .executeUpdate();
+            });
+        }
+        SingletonSessionFactory.get().inTransaction(session -> MailboxFanout.markRebuilt(session, true));
+    }
+}
@@ -0,0 +1,84 @@
+package org.example.services;
+
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import org.example.model.MailboxEvent;
+import org.hibernate.Session;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-process delivery notifications with one publisher per subscribed user. Each subscriber has a
+// bounded buffer; when it is full the event is dropped for that subscriber rather than blocking the
+// send path. A subscriber that fell behind can catch up with EmailService.pollNewMail.
+public class MailboxEventBus {
+
+    private static final String BUFFER_PROPERTY = "milou.events.buffer";
+
+    private static class Holder {
+        private static final MailboxEventBus SHARED = new MailboxEventBus(Integer.getInteger(BUFFER_PROPERTY, 256));
+    }
+
+    private final ConcurrentHashMap<Long, SubmissionPublisher<MailboxEvent>> publishers = new ConcurrentHashMap<>();
+    private final Executor executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final int bufferCapacity;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public MailboxEventBus(int bufferCapacity) {
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    public static MailboxEventBus shared() {
+        return Holder.SHARED;
+    }
+
+    public Flow.Publisher<MailboxEvent> publisherFor(long userId) {
+        return subscriber -> publishers.compute(userId, (id, publisher) -> {
+            if (publisher == null || publisher.isClosed()) {
+                publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+            }
+            publisher.subscribe(subscriber);
+            return publisher;
+        });
+    }
+
+    // Runs under the map's lock for the user, like publisherFor, so a publisher is never closed and
+    // removed while a subscribe for the same user is attaching to it. offer() does not block.
+    public void publish(MailboxEvent event) {
+        publishers.computeIfPresent(event.recipientId(), (id, publisher) -> {
+            if (!publisher.hasSubscribers()) {
+                publisher.close();
+                return null;
+            }
+            publisher.offer(event, (subscriber, item) -> {
+                dropped.incrementAndGet();
+                return false;
+            });
+            return publisher;
+        });
+    }
+
+    // Publishes once the session's transaction has committed; nothing is sent on rollback.
+    public void publishAfterCommit(Session session, List<MailboxEvent> events) {
+        if (events.isEmpty() || publishers.isEmpty()) {
+            return;
+        }
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    events.forEach(MailboxEventBus.this::publish);
+                }
+            }
+        });
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,218 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.EmailBody;
+import org.example.model.User;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.example.services.EmailService.toBoolean;
+import static org.example.services.EmailService.toLocalDateTime;
+
+// Exports a user's received and sent mail as gzip-compressed JSON lines, one message per line.
+// Mail that retention moved to the archive tables is exported after the live mail of the same folder,
+// with "archived": true.
+// Rows are streamed from the database and written as they arrive, so memory use does not depend on
+// the mailbox size: a stateless session keeps no persistence context, and MySQL streams the result
+// set row by row instead of buffering it in the driver.
+public class MailboxExporter {
+
+    // Connector/J only streams with this fetch size; any other value buffers the whole result set.
+    // Other drivers reject it and stream with an ordinary fetch size.
+    private static final int MYSQL_STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+    private static final int FETCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // MySQL cuts group_concat at 1024 bytes by default, which is only a few dozen addresses.
+    private static final int GROUP_CONCAT_MAX_LEN = 16 * 1024 * 1024;
+
+    // Recipients and the body come back in the same row, because no other statement may run on the
+    // connection while a streaming result set is open. The count is selected next to the list so that
+    // a truncated list is detected instead of exported. %1$s is the emails table, %2$s its recipients table.
+    private static final String COLUMNS = """
+                                select e.code, e.subject, e.sent_at, s.email,
+                                       (select group_concat(r.email order by r.email separator ',')
+                                        from %2$s rr
+                                        join users r on r.id = rr.recipient_id
+                                        where rr.email_id = e.id) as recipients,
+                                       (select count(*)
+                                        from %2$s rr
+                                        where rr.email_id = e.id) as recipient_count,
+                                       b.compression, b.payload,
+            """;
+    private static final String RECEIVED = COLUMNS + """
+                                       er.is_read
+                                from %2$s er
+                                join %1$s e on e.id = er.email_id
+                                join users s on s.id = e.sender_id
+                                join email_bodies b on b.id = e.body_id
+                                where er.recipient_id = :userId
+                                order by er.email_id
+            """;
+    private static final String SENT = COLUMNS + """
+                                       true
+                                from %1$s e
+                                join users s on s.id = e.sender_id
+                                join email_bodies b on b.id = e.body_id
+                                where e.sender_id = :userId
+                                order by e.id
+            """;
+
+    // Writes to a temporary file next to target and moves it into place once complete.
+    public long export(User user, Path target) {
+        Path temporary = target.resolveSibling(target.getFileName() + ".part");
+        long exported;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), StandardCharsets.UTF_8),
+                     BUFFER_SIZE)) {
+
+            boolean mysql = isMySql();
+            exported = SingletonSessionFactory.get().fromStatelessTransaction(session -> {
+                if (mysql) {
+                    raiseGroupConcatLimit(session);
+                }
+                return write(session, mysql, "received", RECEIVED, false, user, writer)
+                        + write(session, mysql, "received", RECEIVED, true, user, writer)
+                        + write(session, mysql, "sent", SENT, false, user, writer)
+                        + write(session, mysql, "sent", SENT, true, user, writer);
+            });
+        } catch (IOException e) {
+            deleteQuietly(temporary);
+            throw new UncheckedIOException("Cannot write " + temporary, e);
+        } catch (RuntimeException e) {
+            deleteQuietly(temporary);
+            throw e;
+        }
+
+        try {
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot move export to " + target, e);
+        }
+        return exported;
+    }
+
+    private static boolean isMySql() {
+        return SingletonSessionFactory.get().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect() instanceof MySQLDialect;
+    }
+
+    // Session scoped, so it has to run on the export's own connection before the rows are streamed.
+    private static void raiseGroupConcatLimit(StatelessSession session) {
+        session.createNativeMutationQuery("set session group_concat_max_len = " + GROUP_CONCAT_MAX_LEN)
+                .executeUpdate();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long write(StatelessSession session, boolean mysql, String folder, String sql, boolean archived,
+                              User user, Writer writer) {
+        long count = 0;
+        String query = sql.formatted(archived ? "emails_archive" : "emails", EmailService.recipientsTable(archived));
+        try (ScrollableResults<Object[]> rows = session.createNativeQuery(query, Object[].class)
+                .setParameter("userId", user.getId())
+                .setFetchSize(mysql ? MYSQL_STREAMING_FETCH_SIZE : FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+
+            StringBuilder line = new StringBuilder();
+            while (rows.next()) {
+                Object[] row = rows.get();
+                line.setLength(0);
+                line.append("{\"folder\":");
+                appendString(line, folder);
+                line.append(",\"code\":");
+                appendString(line, (String) row[0]);
+                line.append(",\"subject\":");
+                appendString(line, (String) row[1]);
+                line.append(",\"sentAt\":");
+                appendString(line, String.valueOf(toLocalDateTime(row[2])));
+                line.append(",\"from\":");
+                appendString(line, (String) row[3]);
+                line.append(",\"to\":[");
+                String recipients = (String) row[4];
+                String[] addresses = recipients == null || recipients.isEmpty() ? new String[0] : recipients.split(",");
+                if (addresses.length != ((Number) row[5]).intValue()) {
+                    throw new IllegalStateException("Recipient list of " + row[0] + " was truncated by the database");
+                }
+                for (int i = 0; i < addresses.length; i++) {
+                    line.append(i == 0 ? "" : ",");
+                    appendString(line, addresses[i]);
+                }
+                line.append("],\"read\":").append(toBoolean(row[8]));
+                line.append(",\"archived\":").append(archived);
+                line.append(",\"body\":");
+                appendString(line, EmailBody.decode((String) row[6], toBytes(row[7])));
+                line.append("}\n");
+
+                writer.append(line);
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the export", e);
+        }
+        return count;
+    }
+
+    // Connector/J returns blob columns as byte[]; other drivers return a Blob.
+    private static byte[] toBytes(Object value) {
+        if (value instanceof Blob blob) {
+            try {
+                return blob.getBytes(1, (int) blob.length());
+            } catch (SQLException e) {
+                throw new IllegalStateException("Cannot read a body payload", e);
+            }
+        }
+        return (byte[]) value;
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,184 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.MailboxCursor;
+import org.example.model.MailboxEntry;
+import org.example.model.Page;
+import org.example.model.User;
+import org.hibernate.Session;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.example.services.EmailService.bindCursor;
+import static org.example.services.EmailService.toMailboxEntries;
+
+// Fan-out-on-write mailbox: every delivered email also gets one mailbox_entries row per recipient,
+// so listings are single-table range scans on (owner_id, sent_at) instead of joins.
+// Mail delivered while the mode was off has no rows, so listings keep using the normalized tables
+// until "Main rebuild-mailbox" (MailboxConsistencyChecker.rebuild()) has filled the table. Run it again
+// after the mode has been switched off for a while.
+public class MailboxFanout {
+
+    private static final String ENABLED_PROPERTY = "milou.mailbox.fanout";
+    // How long a missing mailbox_state marker is trusted before the table is read again.
+    private static final long STATE_RECHECK_NANOS = TimeUnit.SECONDS.toNanos(
+            Integer.getInteger("milou.mailbox.state.recheck.seconds", 10));
+
+    private static volatile boolean rebuilt;
+    private static volatile long recheckAt = System.nanoTime();
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    // Writes start as soon as the mode is enabled; reads only once the mailbox_state marker exists.
+    // A rebuild in another process is noticed within STATE_RECHECK_NANOS.
+    public static boolean isReadable() {
+        if (!isEnabled()) {
+            return false;
+        }
+        if (!rebuilt && System.nanoTime() - recheckAt >= 0) {
+            rebuilt = SingletonSessionFactory.get().fromTransaction(session ->
+                    ((Number) session.createNativeQuery("select count(*) from mailbox_state")
+                            .getSingleResult()).longValue() > 0);
+            recheckAt = System.nanoTime() + STATE_RECHECK_NANOS;
+        }
+        return rebuilt;
+    }
+
+    static void markRebuilt(Session session, boolean complete) {
+        session.createNativeQuery("delete from mailbox_state")
+                .addSynchronizedQuerySpace("mailbox_state")
+                .executeUpdate();
+        if (complete) {
+            session.createNativeQuery("insert into mailbox_state (id, rebuilt_at) values (1, :now)")
+                    .addSynchronizedQuerySpace("mailbox_state")
+                    .setParameter("now", LocalDateTime.now())
+                    .executeUpdate();
+        }
+        rebuilt = complete;
+    }
+
+    // Must run in the transaction that persisted the emails, so both commit or neither does.
+    public static void write(Session session, Collection<Long> emailIds) {
+        if (!isEnabled() || emailIds.isEmpty()) {
+            return;
+        }
+        session.flush();
+        session.createNativeQuery("""
+                            insert into mailbox_entries (owner_id, email_id, sent_at, code, subject, sender_email, is_read)
+                            select er.recipient_id, e.id, e.sent_at, e.code, e.subject, s.email, coalesce(er.is_read, false)
+                            from emails e
+                            join email_recipients er on er.email_id = e.id
+                            join users s on s.id = e.sender_id
+                            where e.id in (:emailIds)
+                        """)
+                .addSynchronizedQuerySpace("mailbox_entries")
+                .setParameter("emailIds", emailIds)
+                .executeUpdate();
+    }
+
+    public static void markRead(Session session, long emailId, long userId) {
+        if (!isEnabled()) {
+            return;
+        }
+        session.createNativeQuery("""
+                            update mailbox_entries
+                            set is_read = true
+                            where owner_id = :userId
+                              and email_id = :emailId
+                        """)
+                .addSynchronizedQuerySpace("mailbox_entries")
+                .setParameter("emailId", emailId)
+                .setParameter("userId", userId)
+                .executeUpdate();
+    }
+
+    public static void markRead(Session session, long userId, Collection<String> codes) {
+        if (!isEnabled() || codes.isEmpty()) {
+            return;
+        }
+        session.createNativeQuery("""
+                            update mailbox_entries
+                            set is_read = true
+                            where owner_id = :userId
+                              and is_read = false
+                              and code in (:codes)
+                        """)
+                .addSynchronizedQuerySpace("mailbox_entries")
+                .setParameter("userId", userId)
+                .setParameter("codes", codes)
+                .executeUpdate();
+    }
+
+    public static void markAllRead(Session session, long userId, LocalDateTime upTo) {
+        if (!isEnabled()) {
+            return;
+        }
+        session.createNativeQuery("""
+                            update mailbox_entries
+                            set is_read = true
+                            where owner_id = :userId
+                              and is_read = false
+                              and sent_at <= :upTo
+                        """)
+                .addSynchronizedQuerySpace("mailbox_entries")
+                .setParameter("userId", userId)
+                .setParameter("upTo", upTo)
+                .executeUpdate();
+    }
+
+    static List<MailboxEntry> getReceivedEmails(User user, boolean unreadOnly) {
+        return SingletonSessionFactory.get().fromTransaction(session ->
+                toMailboxEntries(session.createNativeQuery("""
+                                    select m.email_id, m.code, m.subject, m.sender_email, m.sent_at, m.is_read
+                                    from mailbox_entries m
+                                    where m.owner_id = :userId
+                                    """ + (unreadOnly ? "and m.is_read = false\n" : "") + """
+                                    order by m.sent_at DESC
+                                """, Object[].class)
+                        .setParameter("userId", user.getId())
+                        .getResultList())
+        );
+    }
+
+    static Page<MailboxEntry> getReceivedEmailsPage(User user, boolean unreadOnly, MailboxCursor cursor, int pageSize) {
+        return SingletonSessionFactory.get().fromTransaction(session -> {
+            List<MailboxEntry> rows = toMailboxEntries(bindCursor(session.createNativeQuery("""
+                                    select m.email_id, m.code, m.subject, m.sender_email, m.sent_at, m.is_read
+                                    from mailbox_entries m
+                                    where m.owner_id = :userId
+                                    """ + (unreadOnly ? "and m.is_read = false\n" : "") + keysetPredicate(cursor) + """
+                                    order by m.sent_at DESC, m.email_id DESC
+                                """, Object[].class), cursor)
+                    .setParameter("userId", user.getId())
+                    .setMaxResults(pageSize + 1)
+                    .getResultList());
+
+            return Page.of(rows, pageSize, entry -> new MailboxCursor(entry.sentAt(), entry.id()));
+        });
+    }
+
+    static long countUnreadEmails(User user) {
+        return SingletonSessionFactory.get().fromTransaction(session ->
+                ((Number) session.createNativeQuery("""
+                                    select count(*)
+                                    from mailbox_entries
+                                    where owner_id = :userId
+                                      and is_read = false
+                                """)
+                        .setParameter("userId", user.getId())
+                        .getSingleResult()).longValue()
+        );
+    }
+
+    private static String keysetPredicate(MailboxCursor cursor) {
+        if (cursor == null) {
+            return "";
+        }
+        return "and (m.sent_at < :cursorSentAt or (m.sent_at = :cursorSentAt and m.email_id < :cursorId))\n";
+    }
+}
@@ -0,0 +1,113 @@
+package org.example.services;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs BCrypt on a fixed pool with a bounded queue. When the queue is full the call is rejected
+// instead of piling up, so a login storm cannot take every core away from other work.
+public class PasswordHasher {
+
+    private static final String COST_PROPERTY = "milou.bcrypt.cost";
+    private static final String THREADS_PROPERTY = "milou.bcrypt.threads";
+    private static final String QUEUE_PROPERTY = "milou.bcrypt.queue";
+
+    private static class Holder {
+        private static final PasswordHasher SHARED = new PasswordHasher(
+                Integer.getInteger(COST_PROPERTY, 10),
+                Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger(QUEUE_PROPERTY, 100));
+    }
+
+    private final int cost;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher(int cost, int threads, int queueCapacity) {
+        if (cost < 4 || cost > 31) {
+            throw new IllegalArgumentException("BCrypt cost must be between 4 and 31.");
+        }
+        this.cost = cost;
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static PasswordHasher shared() {
+        return Holder.SHARED;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public String hash(String password) {
+        return await(executor.submit(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+    }
+
+    // Bulk hashing for imports: one slice per pool thread, so a large batch takes only a few queue slots.
+    // A slice the pool rejects is hashed on the calling thread instead of failing the batch.
+    public List<String> hashAll(List<String> passwords) {
+        int slices = Math.min(executor.getMaximumPoolSize(), passwords.size());
+        String[] hashes = new String[passwords.size()];
+        List<Future<?>> futures = new ArrayList<>(slices);
+
+        for (int slice = 0; slice < slices; slice++) {
+            int from = passwords.size() * slice / slices;
+            int to = passwords.size() * (slice + 1) / slices;
+            Runnable task = () -> {
+                for (int i = from; i < to; i++) {
+                    hashes[i] = BCrypt.hashpw(passwords.get(i), BCrypt.gensalt(cost));
+                }
+            };
+            try {
+                futures.add(executor.submit(task));
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+        for (Future<?> future : futures) {
+            await(future);
+        }
+        return Arrays.asList(hashes);
+    }
+
+    public boolean verify(String password, String hash) {
+        return await(executor.submit(() -> BCrypt.checkpw(password, hash)));
+    }
+
+    public boolean needsRehash(String hash) {
+        return costOf(hash) != cost;
+    }
+
+    // BCrypt hashes look like $2a$10$..., with the cost in the third field.
+    static int costOf(String hash) {
+        String[] parts = hash.split("\\$");
+        return parts.length > 2 ? Integer.parseInt(parts[2]) : -1;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing a password.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed.", e.getCause());
+        }
+    }
+}
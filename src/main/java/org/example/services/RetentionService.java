@@ -0,0 +1,115 @@
+package org.example.services;
+
+import org.example.framework.ServiceMetrics;
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.Email;
+import org.hibernate.Session;
+import org.hibernate.search.mapper.orm.Search;
+import org.hibernate.search.mapper.orm.work.SearchIndexingPlan;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Moves emails older than the retention age, with their recipient rows, into emails_archive and
+// email_recipients_archive. Each batch is its own short transaction, so row locks are held only for
+// batchSize emails at a time. Archived mail is still found by code (EmailService falls back to the
+// archive tables) but no longer appears in listings or search.
+public class RetentionService {
+
+    private static final String DAYS_PROPERTY = "milou.retention.days";
+    private static final String BATCH_PROPERTY = "milou.retention.batch";
+
+    private final Duration maxAge;
+    private final int batchSize;
+    private final ServiceMetrics metrics = ServiceMetrics.shared();
+
+    public RetentionService() {
+        this(Duration.ofDays(Integer.getInteger(DAYS_PROPERTY, 365)), Integer.getInteger(BATCH_PROPERTY, 1000));
+    }
+
+    public RetentionService(Duration maxAge, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive.");
+        }
+        this.maxAge = maxAge;
+        this.batchSize = batchSize;
+    }
+
+    public long archiveExpired() {
+        return archiveSentBefore(LocalDateTime.now().minus(maxAge));
+    }
+
+    public long archiveSentBefore(LocalDateTime cutoff) {
+        return metrics.call("retention.archive", () -> {
+            long archived = 0;
+            while (true) {
+                int moved = SingletonSessionFactory.get().fromTransaction(session -> archiveBatch(session, cutoff));
+                archived += moved;
+                if (moved > 0) {
+                    System.out.println("Archived " + archived + " emails sent before " + cutoff.toLocalDate() + ".");
+                }
+                if (moved < batchSize) {
+                    return archived;
+                }
+            }
+        });
+    }
+
+    // Oldest first along idx_emails_sent; "for update" keeps the batch from changing between copy and delete.
+    private int archiveBatch(Session session, LocalDateTime cutoff) {
+        List<Long> ids = session.createNativeQuery("""
+                            select id
+                            from emails
+                            where sent_at < :cutoff
+                            order by sent_at, id
+                            limit %d
+                            for update
+                        """.formatted(batchSize), Long.class)
+                .setParameter("cutoff", cutoff)
+                .getResultList();
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        session.createNativeQuery("""
+                            insert into emails_archive (id, sender_id, subject, sent_at, code, body_id, thread_id, parent_id, import_key)
+                            select id, sender_id, subject, sent_at, code, body_id, thread_id, parent_id, import_key
+                            from emails
+                            where id in (:ids)
+                        """)
+                .addSynchronizedQuerySpace("emails_archive")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        session.createNativeQuery("""
+                            insert into email_recipients_archive (id, email_id, recipient_id, is_read, read_at)
+                            select id, email_id, recipient_id, is_read, read_at
+                            from email_recipients
+                            where email_id in (:ids)
+                        """)
+                .addSynchronizedQuerySpace("email_recipients_archive")
+                .setParameter("ids", ids)
+                .executeUpdate();
+
+        session.createNativeQuery("delete from mailbox_entries where email_id in (:ids)")
+                .addSynchronizedQuerySpace("mailbox_entries")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        session.createNativeQuery("delete from email_recipients where email_id in (:ids)")
+                .addSynchronizedQuerySpace("email_recipients")
+                .setParameter("ids", ids)
+                .executeUpdate();
+        // Synchronizing on Email evicts its cached entities, natural ids and recipient collections.
+        session.createNativeQuery("delete from emails where id in (:ids)")
+                .addSynchronizedEntityClass(Email.class)
+                .setParameter("ids", ids)
+                .executeUpdate();
+
+        SearchIndexingPlan indexingPlan = Search.session(session).indexingPlan();
+        for (Long id : ids) {
+            indexingPlan.purge(Email.class, id, null);
+        }
+        return ids.size();
+    }
+}
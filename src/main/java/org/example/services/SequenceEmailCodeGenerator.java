@@ -0,0 +1,103 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Hands out codes from blocks reserved in email_code_sequence, so a send never probes the emails table.
+// Each value is scrambled by a bijection over 36^6 before being base36 encoded, which keeps codes
+// short and unique without looking sequential. Values whose codes were already taken before the
+// sequence existed are listed in email_code_reserved (V13) and skipped.
+public class SequenceEmailCodeGenerator implements EmailCodeGenerator {
+
+    private static final String CHARS = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final int CODE_LENGTH = 6;
+    private static final long KEYSPACE = 2_176_782_336L; // 36^6
+    private static final long MULTIPLIER = 1_580_030_173L; // coprime with 36^6
+    private static final long OFFSET = 918_273_645L;
+    private static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private final int blockSize;
+    private long next;
+    private long blockEnd;
+    private Set<Long> reserved = Set.of();
+
+    public SequenceEmailCodeGenerator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public SequenceEmailCodeGenerator(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive.");
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public synchronized String nextCode() {
+        while (true) {
+            if (next >= blockEnd) {
+                allocateBlock();
+            }
+            long value = next++;
+            if (!reserved.contains(value)) {
+                return encode(value);
+            }
+        }
+    }
+
+    // The reserved values inside the block are only read when the block reaches the highest one,
+    // so on databases without legacy codes a reservation stays at two statements.
+    private void allocateBlock() {
+        SingletonSessionFactory.get().inTransaction(session -> {
+            Object[] row = (Object[]) session.createNativeQuery("""
+                            select s.next_value, (select max(r.sequence_value) from email_code_reserved r)
+                            from email_code_sequence s
+                            where s.id = 1
+                            for update
+                            """)
+                    .uniqueResult();
+            long start = ((Number) row[0]).longValue();
+            Number maxReserved = (Number) row[1];
+
+            session.createNativeQuery(
+                            "update email_code_sequence set next_value = next_value + :blockSize where id = 1")
+                    .addSynchronizedQuerySpace("email_code_sequence")
+                    .setParameter("blockSize", blockSize)
+                    .executeUpdate();
+
+            if (start + blockSize > KEYSPACE) {
+                throw new IllegalStateException("Email code keyspace exhausted.");
+            }
+
+            Set<Long> reservedInBlock = new HashSet<>();
+            if (maxReserved != null && maxReserved.longValue() >= start) {
+                List<Long> values = session.createNativeQuery("""
+                                select sequence_value
+                                from email_code_reserved
+                                where sequence_value >= :start and sequence_value < :end
+                                """, Long.class)
+                        .setParameter("start", start)
+                        .setParameter("end", start + blockSize)
+                        .getResultList();
+                reservedInBlock.addAll(values);
+            }
+
+            next = start;
+            blockEnd = start + blockSize;
+            reserved = reservedInBlock;
+        });
+    }
+
+    static String encode(long value) {
+        long scrambled = (value * MULTIPLIER + OFFSET) % KEYSPACE;
+        char[] code = new char[CODE_LENGTH];
+        for (int i = CODE_LENGTH - 1; i >= 0; i--) {
+            code[i] = CHARS.charAt((int) (scrambled % CHARS.length()));
+            scrambled /= CHARS.length();
+        }
+        return new String(code);
+    }
+}
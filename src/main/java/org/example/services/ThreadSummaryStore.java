@@ -0,0 +1,70 @@
+package org.example.services;
+
+import org.hibernate.Session;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps thread_summaries (V15) in step with deliveries and reads. Every path that stores mail or marks
+// it read calls in here from the same transaction, next to the MailboxFanout call.
+public class ThreadSummaryStore {
+
+    // A delivery replaces the row's latest message only if it is newer by (sent_at, id); imports can
+    // deliver old mail. MySQL applies the assignments left to right, so latest_sent_at, which the
+    // comparison reads, is assigned last; the comparison still holds for it after latest_email_id changed.
+    private static final String NEWER = "latest_sent_at < values(latest_sent_at)"
+            + " or (latest_sent_at = values(latest_sent_at) and latest_email_id < values(latest_email_id))";
+
+    // Must run in the transaction that persisted the emails, so both commit or neither does.
+    public static void write(Session session, Collection<Long> emailIds) {
+        if (emailIds.isEmpty()) {
+            return;
+        }
+        session.flush();
+        session.createNativeQuery("""
+                            insert into thread_summaries (owner_id, thread_id, message_count, unread_count,
+                                                          latest_email_id, latest_sent_at, code, subject, sender_email)
+                            select er.recipient_id, coalesce(e.thread_id, e.id), 1,
+                                   case when er.is_read then 0 else 1 end,
+                                   e.id, e.sent_at, e.code, e.subject, s.email
+                            from emails e
+                            join email_recipients er on er.email_id = e.id
+                            join users s on s.id = e.sender_id
+                            where e.id in (:emailIds)
+                            on duplicate key update
+                                message_count = message_count + 1,
+                                unread_count = unread_count + values(unread_count),
+                                code = case when %1$s then values(code) else code end,
+                                subject = case when %1$s then values(subject) else subject end,
+                                sender_email = case when %1$s then values(sender_email) else sender_email end,
+                                latest_email_id = case when %1$s then values(latest_email_id) else latest_email_id end,
+                                latest_sent_at = case when %1$s then values(latest_sent_at) else latest_sent_at end
+                        """.formatted(NEWER))
+                .addSynchronizedQuerySpace("thread_summaries")
+                .setParameter("emailIds", emailIds)
+                .executeUpdate();
+    }
+
+    // threadIds holds the thread of each recipient row that this transaction switched to read, one entry
+    // per row; callers find them with a locking read, so a row is never counted twice.
+    public static void markRead(Session session, long userId, Collection<Long> threadIds) {
+        Map<Long, Integer> readPerThread = new LinkedHashMap<>();
+        for (Long threadId : threadIds) {
+            readPerThread.merge(threadId, 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> entry : readPerThread.entrySet()) {
+            session.createNativeQuery("""
+                                update thread_summaries
+                                set unread_count = unread_count - :read
+                                where owner_id = :userId
+                                  and thread_id = :threadId
+                            """)
+                    .addSynchronizedQuerySpace("thread_summaries")
+                    .setParameter("read", entry.getValue())
+                    .setParameter("userId", userId)
+                    .setParameter("threadId", entry.getKey())
+                    .executeUpdate();
+        }
+    }
+}
@@ -1,79 +1,153 @@
 package org.example.services;
 
+import org.example.framework.ServiceMetrics;
 import org.example.framework.SingletonSessionFactory;
 
 import org.example.model.User;
+import org.hibernate.Session;
 
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
-public class UserService {
-
-    public User register(String name, String email, String password) {
-        String normalizedEmail = normalizeEmail(email);
-
-        if (name == null || name.trim().isEmpty()) {
-            System.err.println("Name cannot be empty.");
-            return null;
-        }
 
-        if (normalizedEmail == null || normalizedEmail.trim().isEmpty()) {
-            System.err.println("Email cannot be empty.");
-            return null;
-        }
+public class UserService {
 
-        if (password.length() < 8) {
-            System.err.println("Weak password.");
-            return null;
-        }
+    private static final int IN_CLAUSE_CHUNK_SIZE = 500;
 
-        User existingUser = SingletonSessionFactory.get()
-                .fromTransaction(session -> session.createNativeQuery(
-                                "select * from users where email = :email", User.class)
-                        .setParameter("email", normalizedEmail)
-                        .uniqueResult());
+    private final PasswordHasher passwordHasher;
+    private final ServiceMetrics metrics = ServiceMetrics.shared();
 
-        if (existingUser != null) {
-            System.err.println("An account with this email already exists.");
-            return null;
-        }
+    public UserService() {
+        this(PasswordHasher.shared());
+    }
 
-        User user = new User(name, normalizedEmail, password);
-        SingletonSessionFactory.get().inTransaction(session -> session.persist(user));
+    public UserService(PasswordHasher passwordHasher) {
+        this.passwordHasher = passwordHasher;
+    }
 
-        System.out.println("Your new account is created. Go ahead and login!");
-        return user;
+    public User register(String name, String email, String password) {
+        return metrics.call("user.register", () -> {
+            String normalizedEmail = normalizeEmail(email);
+
+            if (name == null || name.trim().isEmpty()) {
+                System.err.println("Name cannot be empty.");
+                return null;
+            }
+
+            if (normalizedEmail == null || normalizedEmail.trim().isEmpty()) {
+                System.err.println("Email cannot be empty.");
+                return null;
+            }
+
+            if (password.length() < 8) {
+                System.err.println("Weak password.");
+                return null;
+            }
+
+            User existingUser = SingletonSessionFactory.get()
+                    .fromTransaction(session -> session.bySimpleNaturalId(User.class)
+                            .load(normalizedEmail));
+
+            if (existingUser != null) {
+                System.err.println("An account with this email already exists.");
+                return null;
+            }
+
+            String passwordHash;
+            try {
+                passwordHash = passwordHasher.hash(password);
+            } catch (RejectedExecutionException e) {
+                System.err.println("Server is busy. Please try again.");
+                return null;
+            }
+
+            User user = new User(name, normalizedEmail, passwordHash);
+            SingletonSessionFactory.get().inTransaction(session -> session.persist(user));
+
+            System.out.println("Your new account is created. Go ahead and login!");
+            return user;
+        }, Objects::isNull);
     }
 
     public User login(String email, String password) {
-        String normalizedEmail = normalizeEmail(email);
-
-        User user = SingletonSessionFactory.get()
-                .fromTransaction(session -> session.createNativeQuery(
-                                "select * from users where email = :email", User.class)
-                        .setParameter("email", normalizedEmail)
-                        .uniqueResult());
-
-        if (user == null || !user.checkPassword(password)) {
-            System.err.println("Invalid email or password.");
-            return null;
-        }
-
-        System.out.println("Welcome back, " + user.getName() + "!");
-        return user;
+        return metrics.call("user.login", () -> {
+            String normalizedEmail = normalizeEmail(email);
+
+            User user = SingletonSessionFactory.get()
+                    .fromTransaction(session -> session.bySimpleNaturalId(User.class)
+                            .load(normalizedEmail));
+
+            if (user == null) {
+                System.err.println("Invalid email or password.");
+                return null;
+            }
+
+            try {
+                if (!passwordHasher.verify(password, user.getPassword())) {
+                    System.err.println("Invalid email or password.");
+                    return null;
+                }
+
+                if (passwordHasher.needsRehash(user.getPassword())) {
+                    user.setPassword(passwordHasher.hash(password));
+                    SingletonSessionFactory.get().inTransaction(session -> session.merge(user));
+                }
+            } catch (RejectedExecutionException e) {
+                System.err.println("Server is busy. Please try again.");
+                return null;
+            }
+
+            System.out.println("Welcome back, " + user.getName() + "!");
+            return user;
+        }, Objects::isNull);
     }
 
     public static String normalizeEmail(String email) {
-        return email.contains("@") ? email : email + "@milou.com";
+        String lowerCase = email.toLowerCase();
+        return lowerCase.contains("@") ? lowerCase : lowerCase + "@milou.com";
     }
 
     public User findByEmail(String email) {
         String normalizedEmail = normalizeEmail(email);
 
         return SingletonSessionFactory.get()
-                .fromTransaction(session -> session.createNativeQuery(
-                                "select * from users where email = :email", User.class)
-                        .setParameter("email", normalizedEmail)
-                        .uniqueResult()
+                .fromTransaction(session -> session.bySimpleNaturalId(User.class)
+                        .load(normalizedEmail)
                 );
     }
 
+    public static List<String> normalizeEmails(Collection<String> emails) {
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String email : emails) {
+            String trimmed = email.trim();
+            if (!trimmed.isEmpty()) {
+                normalized.add(normalizeEmail(trimmed));
+            }
+        }
+        return new ArrayList<>(normalized);
+    }
+
+    // Looks up all addresses with one "in (...)" query per chunk, keyed by normalized email.
+    public Map<String, User> findByEmails(Session session, Collection<String> emails) {
+        List<String> normalizedEmails = normalizeEmails(emails);
+        Map<String, User> users = new HashMap<>();
+
+        for (int from = 0; from < normalizedEmails.size(); from += IN_CLAUSE_CHUNK_SIZE) {
+            List<String> chunk = normalizedEmails.subList(from,
+                    Math.min(from + IN_CLAUSE_CHUNK_SIZE, normalizedEmails.size()));
+
+            List<User> found = session.createNativeQuery(
+                            "select * from users where email in (:emails)", User.class)
+                    .addSynchronizedEntityClass(User.class)
+                    .setParameter("emails", chunk)
+                    .setCacheable(true)
+                    .getResultList();
+
+            for (User user : found) {
+                users.put(user.getEmail(), user);
+            }
+        }
+        return users;
+    }
+
 }
@@ -0,0 +1,8 @@
+-- Conversation links. thread_id is the id of the thread's first email and is null on that first email
+-- itself, so a thread is "id = root or thread_id = root". parent_id is the email replied to or forwarded.
+alter table emails add column thread_id bigint null;
+alter table emails add column parent_id bigint null;
+alter table emails add constraint fk_emails_thread foreign key (thread_id) references emails(id);
+alter table emails add constraint fk_emails_parent foreign key (parent_id) references emails(id);
+
+create index idx_emails_thread on emails (thread_id, sent_at, id);
@@ -0,0 +1,33 @@
+-- Retention (RetentionService) moves emails older than -Dmilou.retention.days out of the live tables
+-- into these, in bounded batches. Bodies stay in email_bodies, which both tables reference.
+create table emails_archive (
+    id bigint primary key,
+    sender_id bigint not null,
+    subject varchar(255) not null,
+    sent_at datetime,
+    code varchar(255) not null,
+    body_id bigint,
+    thread_id bigint null,
+    parent_id bigint null,
+    archived_at datetime not null default CURRENT_TIMESTAMP,
+    constraint uk_emails_archive_code unique (code),
+    foreign key (sender_id) references users(id),
+    foreign key (body_id) references email_bodies(id)
+);
+
+create table email_recipients_archive (
+    id bigint primary key,
+    email_id bigint not null,
+    recipient_id bigint not null,
+    is_read boolean default 0,
+    read_at datetime null,
+    constraint uk_email_recipients_archive_email_recipient unique (email_id, recipient_id),
+    foreign key (email_id) references emails_archive(id),
+    foreign key (recipient_id) references users(id)
+);
+
+create index idx_email_recipients_archive_recipient on email_recipients_archive (recipient_id, email_id);
+
+-- Live replies may point at an archived thread root or parent.
+alter table emails drop foreign key fk_emails_thread;
+alter table emails drop foreign key fk_emails_parent;
@@ -0,0 +1,6 @@
+-- Set by MailboxConsistencyChecker.rebuild() once mailbox_entries holds every delivery.
+-- Fan-out listings read the normalized tables until this row exists.
+create table mailbox_state (
+    id int primary key,
+    rebuilt_at datetime not null
+);
@@ -0,0 +1,2 @@
+-- MailboxFanout.markRead(session, userId, codes) finds the owner's rows by code.
+create index idx_mailbox_entries_owner_code on mailbox_entries (owner_id, code);
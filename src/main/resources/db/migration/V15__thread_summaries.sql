@@ -0,0 +1,43 @@
+-- One row per (recipient, thread) for the thread-collapsed inbox: the latest message the recipient
+-- received in the thread, copied from emails, plus message and unread counts. Deliveries upsert it and
+-- reads decrement it (ThreadSummaryStore), so a page of threads is a range scan on
+-- (owner_id, latest_sent_at, latest_email_id) whatever the thread lengths. Retention leaves it alone,
+-- so archived mail keeps counting and latest_email_id may point into emails_archive.
+create table thread_summaries (
+    owner_id bigint not null,
+    thread_id bigint not null,
+    message_count int not null,
+    unread_count int not null,
+    latest_email_id bigint not null,
+    latest_sent_at datetime,
+    code varchar(255) not null,
+    subject varchar(255) not null,
+    sender_email varchar(255) not null,
+    primary key (owner_id, thread_id),
+    foreign key (owner_id) references users(id)
+);
+
+create index idx_thread_summaries_owner_latest on thread_summaries (owner_id, latest_sent_at, latest_email_id);
+
+insert into thread_summaries (owner_id, thread_id, message_count, unread_count, latest_email_id, latest_sent_at,
+                              code, subject, sender_email)
+select d.recipient_id, d.thread_id, d.message_count, d.unread_count, d.id, d.sent_at, d.code, d.subject, d.sender_email
+from (
+    select m.recipient_id, m.thread_id, m.id, m.sent_at, m.code, m.subject, m.sender_email,
+           row_number() over (partition by m.recipient_id, m.thread_id order by m.sent_at desc, m.id desc) as rn,
+           count(*) over (partition by m.recipient_id, m.thread_id) as message_count,
+           sum(case when m.is_read then 0 else 1 end) over (partition by m.recipient_id, m.thread_id) as unread_count
+    from (
+        select er.recipient_id, coalesce(e.thread_id, e.id) as thread_id, e.id, e.sent_at, e.code, e.subject,
+               s.email as sender_email, er.is_read
+        from email_recipients er
+        join emails e on e.id = er.email_id
+        join users s on s.id = e.sender_id
+        union all
+        select er.recipient_id, coalesce(e.thread_id, e.id), e.id, e.sent_at, e.code, e.subject, s.email, er.is_read
+        from email_recipients_archive er
+        join emails_archive e on e.id = er.email_id
+        join users s on s.id = e.sender_id
+    ) m
+) d
+where d.rn = 1;
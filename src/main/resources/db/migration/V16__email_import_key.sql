@@ -0,0 +1,8 @@
+-- BulkImporter.importMbox stores a key per imported message (a hash of its Message-ID, or of sender, Date
+-- header and body when there is none) and skips messages whose key is already in either table, so
+-- importing the same mbox twice does not duplicate mail. Mail sent through the service has no key.
+alter table emails add column import_key char(64) null;
+alter table emails_archive add column import_key char(64) null;
+
+create unique index uk_emails_import_key on emails (import_key);
+create index idx_emails_archive_import_key on emails_archive (import_key);
@@ -0,0 +1,5 @@
+-- getThread and the mailbox export read the archive tables the same way as the live ones.
+-- Thread members by root id, as idx_emails_thread on emails:
+create index idx_emails_archive_thread on emails_archive (thread_id, sent_at, id);
+-- Archived sent mail by sender, as idx_emails_sender_sent on emails:
+create index idx_emails_archive_sender_sent on emails_archive (sender_id, sent_at, id);
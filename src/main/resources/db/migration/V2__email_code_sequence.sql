@@ -0,0 +1,6 @@
+create table email_code_sequence (
+    id int primary key,
+    next_value bigint not null
+);
+
+insert into email_code_sequence (id, next_value) values (1, 0);
@@ -0,0 +1 @@
+create index idx_email_recipients_unread on email_recipients (recipient_id, is_read, email_id);
@@ -0,0 +1,12 @@
+-- Sent listing: filter on sender_id, keyset order on (sent_at, id)
+create index idx_emails_sender_sent on emails (sender_id, sent_at, id);
+
+-- Received listings: lets the optimizer walk emails in (sent_at, id) order for the first page
+create index idx_emails_sent on emails (sent_at, id);
+
+-- Received listings and recipient lookups by email: recipient_id first, email_id covered
+create index idx_email_recipients_recipient on email_recipients (recipient_id, email_id);
+
+-- Declared by EmailRecipient but missing from the original DDL; also serves email_id lookups
+alter table email_recipients
+    add constraint uk_email_recipients_email_recipient unique (email_id, recipient_id);
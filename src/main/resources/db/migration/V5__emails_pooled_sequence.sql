@@ -0,0 +1,8 @@
+-- Table-backed sequence for Email ids (MySQL has no native sequences). IDENTITY ids force Hibernate
+-- to insert each email immediately; a pooled sequence lets it batch the inserts.
+-- The pooled optimizer hands out (next_val - 49 .. next_val), so start one allocation above the current max.
+create table emails_seq (
+    next_val bigint
+);
+
+insert into emails_seq (next_val) select coalesce(max(id), 0) + 50 from emails;
@@ -0,0 +1,18 @@
+-- Per-recipient mailbox rows for fan-out-on-write mode (-Dmilou.mailbox.fanout=true).
+-- Listings read this table by (owner_id, sent_at) with no joins.
+create table mailbox_entries (
+    id bigint auto_increment primary key,
+    owner_id bigint not null,
+    email_id bigint not null,
+    sent_at datetime not null,
+    code varchar(255) not null,
+    subject varchar(255) not null,
+    sender_email varchar(255) not null,
+    is_read boolean not null default 0,
+    constraint uk_mailbox_entries_owner_email unique (owner_id, email_id),
+    foreign key (owner_id) references users(id),
+    foreign key (email_id) references emails(id)
+);
+
+create index idx_mailbox_entries_owner_sent on mailbox_entries (owner_id, sent_at, email_id);
+create index idx_mailbox_entries_owner_unread on mailbox_entries (owner_id, is_read, sent_at, email_id);
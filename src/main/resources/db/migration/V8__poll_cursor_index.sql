@@ -0,0 +1,2 @@
+-- pollNewMail: range scan on email_recipients.id per recipient
+create index idx_email_recipients_recipient_cursor on email_recipients (recipient_id, id);
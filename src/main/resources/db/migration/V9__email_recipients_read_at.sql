@@ -0,0 +1,2 @@
+-- Set by readEmailByCode, markRead and markAllRead.
+alter table email_recipients add column read_at datetime null;
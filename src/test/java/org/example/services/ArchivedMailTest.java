@@ -0,0 +1,75 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.MailboxEntry;
+import org.example.model.SendResult;
+import org.example.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Mail moved to the archive tables by retention still shows up in exports and threads.
+class ArchivedMailTest {
+
+    private final EmailService emailService = new EmailService();
+
+    @TempDir
+    Path workDirectory;
+
+    @Test
+    void exportIncludesArchivedMail() throws IOException {
+        User sender = TestMail.newUser();
+        User recipient = TestMail.newUser();
+        String code = TestMail.send(emailService, sender, "archived export", "archived export body", recipient);
+        archive(code);
+
+        Path target = workDirectory.resolve("export.jsonl.gz");
+        long exported = new MailboxExporter().export(recipient, target);
+
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(target)), StandardCharsets.UTF_8))) {
+            lines = reader.lines().toList();
+        }
+        assertEquals(1, exported);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"code\":\"" + code + "\""), lines.get(0));
+        assertTrue(lines.get(0).contains("\"archived\":true"), lines.get(0));
+    }
+
+    @Test
+    void threadSpansLiveAndArchivedMail() {
+        User sender = TestMail.newUser();
+        User recipient = TestMail.newUser();
+        String root = TestMail.send(emailService, sender, "archived thread", "archived thread body", recipient);
+        archive(root);
+        SendResult reply = emailService.replyToEmailAsync(recipient, root, "live reply").join();
+        assertTrue(reply.isSent(), reply.error());
+
+        List<String> codes = emailService.getThread(sender, reply.code()).stream().map(MailboxEntry::code).toList();
+
+        assertEquals(List.of(root, reply.code()), codes);
+    }
+
+    private static void archive(String code) {
+        SingletonSessionFactory.get().inTransaction(session ->
+                session.createNativeQuery("update emails set sent_at = :sentAt where code = :code")
+                        .setParameter("sentAt", LocalDateTime.of(2000, 1, 1, 0, 0))
+                        .setParameter("code", code)
+                        .executeUpdate());
+        new RetentionService(Duration.ofDays(1), 10).archiveSentBefore(LocalDateTime.of(2000, 1, 2, 0, 0));
+    }
+}
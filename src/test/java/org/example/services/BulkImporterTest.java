@@ -0,0 +1,56 @@
+package org.example.services;
+
+import org.example.model.ImportResult;
+import org.example.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Importing the same mbox again skips the messages it already stored, with or without a Message-ID.
+class BulkImporterTest {
+
+    @TempDir
+    Path workDirectory;
+
+    @Test
+    void reimportSkipsStoredMessages() throws IOException {
+        User sender = TestMail.newUser();
+        User recipient = TestMail.newUser();
+        String longSubject = "s".repeat(254) + "😀";
+        Path mbox = Files.writeString(workDirectory.resolve("mail.mbox"), """
+                From sender Mon Jan  1 00:00:00 2024
+                From: %1$s
+                To: %2$s
+                Message-ID: <%3$d.1@milou.test>
+                Subject: with id
+
+                same body
+                From sender Mon Jan  1 00:00:00 2024
+                From: %1$s
+                To: %2$s
+                Date: Mon, 1 Jan 2024 10:00:00 +0000
+                Subject: %4$s
+
+                same body
+                """.formatted(sender.getEmail(), recipient.getEmail(), System.nanoTime(), longSubject));
+
+        ImportResult first = new BulkImporter().importMbox(mbox);
+        ImportResult second = new BulkImporter().importMbox(mbox);
+
+        assertEquals(2, first.imported());
+        assertEquals(0, second.imported());
+        assertEquals(2, second.skipped());
+    }
+
+    @Test
+    void truncateKeepsSurrogatePairsWhole() {
+        assertEquals("ab", BulkImporter.truncate("ab😀", 3));
+        assertEquals("ab😀", BulkImporter.truncate("ab😀c", 4));
+        assertEquals("abc", BulkImporter.truncate("abc", 3));
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.EmailBody;
+import org.example.model.User;
+import org.hibernate.stat.EntityStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Read, reply and forward load the email, the caller's role and the recipients with one access query.
+// The body comes from the second-level cache, and reading only updates a row that is still unread,
+// plus the unread count of its thread.
+class EmailAccessStatementsTest {
+
+    private final EmailService emailService = new EmailService();
+    private User alice;
+    private User bob;
+    private String code;
+
+    @BeforeEach
+    void sendMail() {
+        alice = TestMail.newUser();
+        bob = TestMail.newUser();
+        User carol = TestMail.newUser();
+        code = TestMail.send(emailService, alice, "access", "access body " + System.nanoTime(), bob, carol);
+    }
+
+    @Test
+    void readIssuesOneAccessQueryAndUpdatesOnlyUnreadRows() {
+        EntityStatistics bodies = SingletonSessionFactory.get().getStatistics()
+                .getEntityStatistics(EmailBody.class.getName());
+        long bodyCacheHits = bodies.getCacheHitCount();
+
+        List<String> firstRead = statementsOf(() -> emailService.readEmailByCode(bob, code));
+        List<String> secondRead = statementsOf(() -> emailService.readEmailByCode(bob, code));
+
+        assertEquals(3, firstRead.size(), String.join("\n", firstRead));
+        assertEquals(1, accessQueries(firstRead));
+        assertTrue(firstRead.get(1).strip().startsWith("update email_recipients"), firstRead.get(1));
+        assertTrue(firstRead.get(2).strip().startsWith("update thread_summaries"), firstRead.get(2));
+        assertEquals(List.of(firstRead.get(0)), secondRead);
+        assertEquals(bodyCacheHits + 2, bodies.getCacheHitCount());
+    }
+
+    @Test
+    void replyIssuesOneAccessQueryAndLoadsNoUsers() {
+        List<String> reply = statementsOf(() -> emailService.replyToEmail(bob, code, "reply " + System.nanoTime()));
+
+        assertEquals(1, accessQueries(reply), String.join("\n", reply));
+        assertEquals(0, count(reply, "from users"), String.join("\n", reply));
+        assertEquals(0, count(reply, "from email_recipients"), String.join("\n", reply));
+    }
+
+    @Test
+    void forwardIssuesOneAccessQueryAndReusesTheCachedBody() {
+        List<String> forward = statementsOf(() -> emailService.forwardEmail(bob, code, List.of(alice.getEmail())));
+
+        assertEquals(1, accessQueries(forward), String.join("\n", forward));
+        assertEquals(0, count(forward, "email_bodies"), String.join("\n", forward));
+        // Only the new recipients are resolved.
+        assertEquals(1, count(forward, "from users"), String.join("\n", forward));
+        assertEquals(0, count(forward, "from email_recipients"), String.join("\n", forward));
+    }
+
+    @Test
+    void asyncReplyAndForwardIssueOneAccessQueryEach() {
+        List<String> reply = statementsOf(() -> emailService.replyToEmailAsync(bob, code, "async " + System.nanoTime()).join());
+        List<String> forward = statementsOf(() -> emailService.forwardEmailAsync(bob, code, List.of(alice.getEmail())).join());
+
+        assertEquals(1, accessQueries(reply), String.join("\n", reply));
+        assertEquals(1, accessQueries(forward), String.join("\n", forward));
+        assertEquals(0, count(forward, "email_bodies"), String.join("\n", forward));
+    }
+
+    private static List<String> statementsOf(Runnable serviceCall) {
+        RecordingStatementInspector.drain();
+        serviceCall.run();
+        return RecordingStatementInspector.drain();
+    }
+
+    // The live lookup; mail that exists is never looked up again in the archive tables.
+    private static long accessQueries(List<String> statements) {
+        assertEquals(0, count(statements, "emails_archive"), String.join("\n", statements));
+        return statements.stream()
+                .filter(sql -> sql.contains("from emails e") && sql.contains("where e.code = ?"))
+                .count();
+    }
+
+    private static long count(List<String> statements, String fragment) {
+        return statements.stream().filter(sql -> sql.contains(fragment)).count();
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// A body inserted by a transaction that rolls back must not outlive it in the second-level cache.
+class EmailBodyStoreTest {
+
+    @Test
+    void rolledBackBodyIsNotReusedFromTheCache() {
+        String text = "rolled back body " + System.nanoTime();
+        assertThrows(IllegalStateException.class, () -> SingletonSessionFactory.get().inTransaction(session -> {
+            EmailBodyStore.store(session, text);
+            throw new IllegalStateException("roll back");
+        }));
+
+        TestMail.send(new EmailService(), TestMail.newUser(), "after rollback", text, TestMail.newUser());
+    }
+}
@@ -0,0 +1,39 @@
+package org.example.services;
+
+import org.example.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// shutdown() commits every write accepted before it and refuses the rest; no future is left pending.
+class EmailWriteBatcherTest {
+
+    @Test
+    void shutdownCommitsAcceptedWritesAndRefusesLaterOnes() {
+        User sender = TestMail.newUser();
+        User recipient = TestMail.newUser();
+        SequenceEmailCodeGenerator codes = new SequenceEmailCodeGenerator();
+        EmailWriteBatcher batcher = new EmailWriteBatcher(100, 1_000);
+
+        CompletableFuture<Long> accepted = batcher.submit(write(sender, recipient, codes.nextCode()));
+        batcher.shutdown();
+        CompletableFuture<Long> refused = batcher.submit(write(sender, recipient, codes.nextCode()));
+
+        assertTrue(accepted.isDone());
+        assertNotNull(accepted.join());
+        CompletionException failure = assertThrows(CompletionException.class, refused::join);
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+    }
+
+    private static EmailWriteBatcher.EmailWrite write(User sender, User recipient, String code) {
+        return new EmailWriteBatcher.EmailWrite(sender.getId(), sender.getEmail(), List.of(recipient.getId()),
+                "batched", "batched body " + System.nanoTime(), null, code, null, null);
+    }
+}
@@ -0,0 +1,199 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.example.model.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+// Runs every service operation, EXPLAINs each statement it prepared and fails on full scans. H2 plans are
+// not MySQL plans, but a statement that H2 can only answer by scanning a table has no usable index on
+// MySQL either. Caches are evicted before each call so every query reaches the database.
+class QueryPlanTest {
+
+    // "/* public.emails.tableScan */", or an index comment without a condition, e.g. "/* public.idx_emails_sent */".
+    private static final Pattern FULL_SCAN = Pattern.compile("/\\* public\\.\\w+(\\.tableScan)? \\*/");
+    // A min/max answered from one end of an index: H2 prints the scan node, then "direct lookup" for the same
+    // (sub)query. Only that node is exempt; other scans in the statement still fail.
+    private static final Pattern DIRECT_LOOKUP = Pattern.compile(FULL_SCAN.pattern() + "\\s*/\\* direct lookup \\*/");
+    // Holds at most one row (V12).
+    private static final String SINGLE_ROW_TABLE = "mailbox_state";
+
+    private static final EmailService emailService = new EmailService();
+    private static User alice;
+    private static User bob;
+    private static String code;
+    private static Path workDirectory;
+
+    @BeforeAll
+    static void createMail() throws IOException {
+        alice = TestMail.newUser();
+        bob = TestMail.newUser();
+        code = TestMail.send(emailService, alice, "Quarterly plan", "plan body", bob);
+        TestMail.send(emailService, bob, "Re: plan", "reply body", alice);
+        workDirectory = Files.createTempDirectory("query-plans");
+    }
+
+    @AfterAll
+    static void disableFanout() {
+        System.clearProperty("milou.mailbox.fanout");
+    }
+
+    @Test
+    void userQueriesUseIndexes() {
+        assertIndexed(() -> TestMail.newUser());
+        assertIndexed(() -> new UserService().login(bob.getEmail(), "wrong password"));
+        assertIndexed(() -> new UserService().findByEmail(alice.getEmail()));
+    }
+
+    @Test
+    void sendQueriesUseIndexes() {
+        assertIndexed(() -> emailService.sendEmail(alice, bob.getEmail() + ", nobody@milou.test", "s", "sync body"));
+        assertIndexed(() -> TestMail.send(emailService, alice, "s", "async body", bob));
+        assertIndexed(() -> emailService.replyToEmail(bob, code, "sync reply"));
+        assertIndexed(() -> emailService.forwardEmail(bob, code, List.of(alice.getEmail())));
+        assertIndexed(() -> emailService.replyToEmailAsync(bob, code, "async reply").join());
+        assertIndexed(() -> emailService.forwardEmailAsync(bob, code, List.of(alice.getEmail())).join());
+    }
+
+    @Test
+    void listingQueriesUseIndexes() {
+        assertIndexed(() -> emailService.getAllReceivedEmails(bob));
+        assertIndexed(() -> emailService.getUnreadEmails(bob));
+        assertIndexed(() -> emailService.countUnreadEmails(bob));
+        assertIndexed(() -> emailService.getSentEmails(alice));
+        assertIndexed(() -> emailService.getReceivedEmailsPage(bob, null, 1));
+        assertIndexed(() -> emailService.getUnreadEmailsPage(bob, null, 1));
+        assertIndexed(() -> emailService.getSentEmailsPage(alice, null, 1));
+        assertIndexed(() -> emailService.getReceivedThreadsPage(bob, null, 1));
+        assertIndexed(() -> emailService.getReceivedThreadsPage(bob,
+                emailService.getReceivedThreadsPage(bob, null, 1).nextCursor(), 1));
+        assertIndexed(() -> emailService.getThread(bob, code));
+        assertIndexed(() -> emailService.pollNewMail(bob, emailService.currentMailCursor(bob)));
+        assertIndexed(() -> emailService.search(bob, "plan", 10));
+    }
+
+    @Test
+    void readQueriesUseIndexes() {
+        assertIndexed(() -> emailService.readEmailByCode(bob, code));
+        assertIndexed(() -> emailService.markRead(bob, List.of(code)));
+        assertIndexed(() -> emailService.markAllRead(bob, Instant.now()));
+    }
+
+    @Test
+    void fanoutQueriesUseIndexes() {
+        System.setProperty("milou.mailbox.fanout", "true");
+        try {
+            assertIndexed(() -> new MailboxConsistencyChecker().rebuild());
+            assertIndexed(() -> TestMail.send(emailService, alice, "fan-out", "fan-out body", bob));
+            assertIndexed(() -> emailService.getAllReceivedEmails(bob));
+            assertIndexed(() -> emailService.getUnreadEmailsPage(bob, null, 1));
+            assertIndexed(() -> emailService.countUnreadEmails(bob));
+            assertIndexed(() -> emailService.markRead(bob, List.of(code)));
+            assertIndexed(() -> emailService.markAllRead(bob, Instant.now()));
+        } finally {
+            System.clearProperty("milou.mailbox.fanout");
+        }
+    }
+
+    @Test
+    void batchQueriesUseIndexes() throws IOException {
+        User carol = TestMail.newUser();
+        Path users = Files.writeString(workDirectory.resolve("users.csv"),
+                "name,email,password\nDave,dave." + System.nanoTime() + "@milou.test,password123\n");
+        Path mbox = Files.writeString(workDirectory.resolve("mail.mbox"), """
+                From alice Mon Jan  1 00:00:00 2024
+                From: %s
+                To: %s
+                Subject: imported
+
+                imported body
+                """.formatted(alice.getEmail(), carol.getEmail()));
+
+        assertIndexed(() -> new BulkImporter().importUsers(users));
+        assertIndexed(() -> new BulkImporter().importMbox(mbox));
+        assertIndexed(() -> new MailboxExporter().export(carol, workDirectory.resolve("carol.jsonl.gz")));
+    }
+
+    @Test
+    void archiveQueriesUseIndexes() {
+        String old = TestMail.send(emailService, alice, "old", "old body", bob);
+        SingletonSessionFactory.get().inTransaction(session ->
+                session.createNativeQuery("update emails set sent_at = :sentAt where code = :code")
+                        .setParameter("sentAt", LocalDateTime.of(2000, 1, 1, 0, 0))
+                        .setParameter("code", old)
+                        .executeUpdate());
+
+        assertIndexed(() -> new RetentionService(Duration.ofDays(1), 10)
+                .archiveSentBefore(LocalDateTime.of(2000, 1, 2, 0, 0)));
+        // Archived mail is still readable by code, through the archive tables.
+        assertIndexed(() -> emailService.readEmailByCode(bob, old));
+        assertIndexed(() -> emailService.getThread(bob, old));
+        assertIndexed(() -> new MailboxExporter().export(bob, workDirectory.resolve("bob.jsonl.gz")));
+    }
+
+    @Test
+    void directLookupExemptsOnlyItsOwnPlanNode() {
+        assertFalse(hasFullScan(explain("select max(id) from emails")));
+        assertTrue(hasFullScan(explain("select (select max(id) from emails), subject from emails")));
+    }
+
+    private static void assertIndexed(Runnable serviceCall) {
+        SingletonSessionFactory.get().getCache().evictAllRegions();
+        RecordingStatementInspector.drain();
+        serviceCall.run();
+        List<String> statements = RecordingStatementInspector.drain();
+        assertFalse(statements.isEmpty(), "no statements were prepared");
+
+        List<String> scans = new ArrayList<>();
+        for (String sql : statements) {
+            String plan = explain(sql);
+            if (hasFullScan(plan)) {
+                scans.add(sql.strip() + "\n  -> " + plan.strip());
+            }
+        }
+        if (!scans.isEmpty()) {
+            fail("Full scans:\n" + String.join("\n", scans));
+        }
+    }
+
+    private static boolean hasFullScan(String plan) {
+        String scanned = DIRECT_LOOKUP.matcher(plan.replace("public." + SINGLE_ROW_TABLE + ".tableScan", "")).replaceAll("");
+        return FULL_SCAN.matcher(scanned).find();
+    }
+
+    // Parameters are bound as null; H2 chooses indexes from the statement's shape, not its values.
+    static String explain(String sql) {
+        return SingletonSessionFactory.get().fromSession(session -> session.doReturningWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("explain " + sql)) {
+                int parameters = statement.getParameterMetaData().getParameterCount();
+                for (int i = 1; i <= parameters; i++) {
+                    statement.setObject(i, null);
+                }
+                StringBuilder result = new StringBuilder();
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        result.append(rows.getString(1)).append('\n');
+                    }
+                }
+                return result.toString();
+            }
+        }));
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.services;
+
+import org.example.framework.StatementCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// StatementCounter that also keeps every statement Hibernate prepares, on any thread, so tests can count
+// and explain the SQL behind a service call. Tests run one at a time, so drain() before and after the call.
+public class RecordingStatementInspector extends StatementCounter {
+
+    private static final ConcurrentLinkedQueue<String> STATEMENTS = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public String inspect(String sql) {
+        STATEMENTS.add(sql);
+        return super.inspect(sql);
+    }
+
+    public static List<String> drain() {
+        List<String> statements = new ArrayList<>();
+        String sql;
+        while ((sql = STATEMENTS.poll()) != null) {
+            statements.add(sql);
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.services;
+
+import org.example.framework.StatementCounter;
+import org.example.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A send takes its code from the generator's reserved block: no statement for the code while the block
+// lasts, and one select-for-update plus one update of email_code_sequence when a new block is reserved.
+class SendStatementCountTest {
+
+    private static final Pattern CODE_LOOKUP = Pattern.compile("code\\s*=\\s*\\?");
+
+    private final EmailService emailService = new EmailService(new SequenceEmailCodeGenerator(2));
+    private User sender;
+    private User recipient;
+
+    @BeforeEach
+    void createUsers() {
+        sender = TestMail.newUser();
+        recipient = TestMail.newUser();
+    }
+
+    @Test
+    void sendWithWarmBlockPreparesNoCodeStatements() {
+        send("first");
+        List<String> warm = send("second");
+
+        assertEquals(0, count(warm, "email_code_sequence"), String.join("\n", warm));
+        assertTrue(warm.stream().noneMatch(sql -> CODE_LOOKUP.matcher(sql).find()),
+                "the emails table is probed for the code:\n" + String.join("\n", warm));
+    }
+
+    @Test
+    void sendThatReservesBlockAddsTwoStatements() {
+        List<String> reserving = send("first");
+        List<String> warm = send("second");
+        List<String> reservingAgain = send("third");
+
+        assertEquals(2, count(reserving, "email_code_sequence"), String.join("\n", reserving));
+        assertEquals(2, count(reservingAgain, "email_code_sequence"), String.join("\n", reservingAgain));
+        assertEquals(withoutIdAllocation(warm).size() + 2, withoutIdAllocation(reservingAgain).size());
+    }
+
+    // Sends on this thread and returns the statements it prepared; StatementCounter must agree.
+    private List<String> send(String body) {
+        RecordingStatementInspector.drain();
+        long before = StatementCounter.current();
+        emailService.sendEmail(sender, recipient.getEmail(), "count", body + " " + System.nanoTime());
+        long counted = StatementCounter.current() - before;
+
+        List<String> statements = RecordingStatementInspector.drain();
+        assertEquals(statements.size(), counted);
+        return statements;
+    }
+
+    private static long count(List<String> statements, String table) {
+        return statements.stream().filter(sql -> sql.contains(table)).count();
+    }
+
+    // emails ids come from the pooled emails_seq table, which is read once every 50 ids.
+    private static List<String> withoutIdAllocation(List<String> statements) {
+        return statements.stream().filter(sql -> !sql.contains("emails_seq")).toList();
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.services;
+
+import org.example.framework.SingletonSessionFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Codes taken before the sequence existed are reserved (V13) and never handed out again.
+class SequenceEmailCodeGeneratorTest {
+
+    @Test
+    void skipsReservedValues() {
+        long next = SingletonSessionFactory.get().fromTransaction(session ->
+                ((Number) session.createNativeQuery("select next_value from email_code_sequence where id = 1")
+                        .getSingleResult()).longValue());
+        SingletonSessionFactory.get().inTransaction(session ->
+                session.createNativeQuery("insert into email_code_reserved (sequence_value) values (:value)")
+                        .setParameter("value", next + 1)
+                        .executeUpdate());
+
+        SequenceEmailCodeGenerator generator = new SequenceEmailCodeGenerator(3);
+
+        assertEquals(List.of(SequenceEmailCodeGenerator.encode(next), SequenceEmailCodeGenerator.encode(next + 2)),
+                List.of(generator.nextCode(), generator.nextCode()));
+    }
+}
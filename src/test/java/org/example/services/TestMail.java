@@ -0,0 +1,33 @@
+package org.example.services;
+
+import org.example.model.SendResult;
+import org.example.model.User;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+// Users and mail for the service tests. All tests share the one in-memory database behind
+// SingletonSessionFactory, so every fixture gets unique addresses instead of being cleaned up.
+final class TestMail {
+
+    private static final AtomicInteger USERS = new AtomicInteger();
+
+    private TestMail() {
+    }
+
+    static User newUser() {
+        int n = USERS.incrementAndGet();
+        return new UserService().register("User " + n, "user" + n + "." + System.nanoTime() + "@milou.test", "password" + n);
+    }
+
+    // Sends through the write batcher and returns the new email's code.
+    static String send(EmailService emailService, User sender, String subject, String body, User... recipients) {
+        String addresses = Arrays.stream(recipients).map(User::getEmail).collect(Collectors.joining(","));
+        SendResult result = emailService.sendEmailAsync(sender, addresses, subject, body).join();
+        if (!result.isSent()) {
+            throw new IllegalStateException(result.error());
+        }
+        return result.code();
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.services;
+
+import org.example.model.Page;
+import org.example.model.ThreadSummary;
+import org.example.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// The thread listing reads thread_summaries, so its counts and its latest message must follow every
+// delivery and every read.
+class ThreadSummaryTest {
+
+    private final EmailService emailService = new EmailService();
+    private User alice;
+    private User bob;
+
+    @BeforeEach
+    void createUsers() {
+        alice = TestMail.newUser();
+        bob = TestMail.newUser();
+    }
+
+    @Test
+    void deliveriesAndReadsKeepTheCountsAndTheLatestMessage() {
+        String root = TestMail.send(emailService, alice, "plan", "plan body", bob);
+        String reply = emailService.replyToEmailAsync(alice, root, "more plan").join().code();
+
+        ThreadSummary thread = onlyThread();
+        assertEquals(reply, thread.latestCode());
+        assertEquals(2, thread.messageCount());
+        assertEquals(2, thread.unreadCount());
+
+        emailService.readEmailByCode(bob, root);
+        emailService.readEmailByCode(bob, root);
+        assertEquals(1, onlyThread().unreadCount());
+
+        emailService.markRead(bob, List.of(root, reply));
+        assertEquals(0, onlyThread().unreadCount());
+
+        emailService.replyToEmail(alice, reply, "even more plan");
+        assertEquals(1, onlyThread().unreadCount());
+        emailService.markAllRead(bob, Instant.now());
+        assertEquals(0, onlyThread().unreadCount());
+        assertEquals(3, onlyThread().messageCount());
+    }
+
+    @Test
+    void pagesFollowTheLatestMessageOfEachThread() {
+        String older = TestMail.send(emailService, alice, "older", "older body", bob);
+        String newer = TestMail.send(emailService, alice, "newer", "newer body", bob);
+        // A reply moves the older thread to the top.
+        String reply = emailService.replyToEmailAsync(alice, older, "bump").join().code();
+
+        Page<ThreadSummary> first = emailService.getReceivedThreadsPage(bob, null, 1);
+        Page<ThreadSummary> second = emailService.getReceivedThreadsPage(bob, first.nextCursor(), 1);
+
+        assertEquals(reply, first.items().get(0).latestCode());
+        assertEquals(newer, second.items().get(0).latestCode());
+        assertFalse(second.hasNext());
+    }
+
+    private ThreadSummary onlyThread() {
+        Page<ThreadSummary> page = emailService.getReceivedThreadsPage(bob, null, 10);
+        assertEquals(1, page.items().size());
+        assertFalse(page.hasNext());
+        return page.items().get(0);
+    }
+}